@@ -16,16 +16,21 @@
 
 package javax.microedition.lcdui;
 
+import android.util.Log;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import javax.microedition.lcdui.game.Sprite;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class GraphicsTest {
+	private static final String TAG = GraphicsTest.class.getName();
 
 	private final int WHITE = 0x00ffffff;
 	private final int BLACK = 0x00000000;
@@ -234,6 +239,86 @@ public class GraphicsTest {
 		assertTrue(validate(image, spotsToValidate));
 	}
 
+	@Test
+	public void drawImageAnchors() {
+		Image image = Image.createImage(testWidth, testHeight);
+		Graphics graphics = image.getGraphics();
+
+		Image drawImage = Image.createImage(4, 4);
+		Graphics drawGraphics = drawImage.getGraphics();
+		drawGraphics.fillRect(0, 0, 4, 4);
+
+		graphics.setColor(WHITE);
+		graphics.fillRect(0, 0, testWidth, testHeight);
+		graphics.drawImage(drawImage, 0, 0, Graphics.LEFT | Graphics.TOP);
+		graphics.drawImage(drawImage, 20, 20, Graphics.RIGHT | Graphics.BOTTOM);
+		graphics.drawRegion(drawImage, 0, 0, 2, 2, 0, 10, 10, Graphics.HCENTER | Graphics.VCENTER);
+
+		final int[] spotsToValidate = {
+				0, 0, BLACK,
+				3, 3, BLACK,
+				4, 4, WHITE,
+
+				16, 16, BLACK,
+				19, 19, BLACK,
+				15, 15, WHITE,
+
+				9, 9, BLACK,
+				10, 10, BLACK,
+				8, 8, WHITE,
+				11, 11, WHITE
+		};
+		assertTrue(validate(image, spotsToValidate));
+	}
+
+	/**
+	 * Sprite and tile painting style blits: many small cells from one sheet
+	 */
+	@Test
+	public void benchmarkBlits() {
+		Image target = Image.createImage(240, 320);
+		Graphics graphics = target.getGraphics();
+		Image sheet = Image.createImage(128, 128);
+		Graphics sheetGraphics = sheet.getGraphics();
+		for (int i = 0; i < 16; i++) {
+			sheetGraphics.setColor(i * 0x111111);
+			sheetGraphics.fillRect(i % 8 * 16, i / 8 * 16, 16, 16);
+		}
+		Image cell = Image.createImage(sheet, 0, 0, 16, 16, Sprite.TRANS_NONE);
+
+		int draws = 100000;
+		// warm up the paths before measuring
+		benchmark(graphics, sheet, cell, draws / 10, 0);
+		benchmark(graphics, sheet, cell, draws / 10, 1);
+		benchmark(graphics, sheet, cell, draws / 10, 2);
+		Log.i(TAG, "drawImage: " + benchmark(graphics, sheet, cell, draws, 0) + " draws/ms");
+		Log.i(TAG, "drawRegion: " + benchmark(graphics, sheet, cell, draws, 1) + " draws/ms");
+		Log.i(TAG, "drawRegion transformed: " + benchmark(graphics, sheet, cell, draws, 2) + " draws/ms");
+	}
+
+	private static long benchmark(Graphics graphics, Image sheet, Image cell, int draws, int mode) {
+		long start = System.nanoTime();
+		for (int i = 0; i < draws; i++) {
+			int x = i * 16 % 240;
+			int y = i / 15 * 16 % 320;
+			int frame = i & 15;
+			switch (mode) {
+				case 0:
+					graphics.drawImage(cell, x, y, Graphics.LEFT | Graphics.TOP);
+					break;
+				case 1:
+					graphics.drawRegion(sheet, frame % 8 * 16, frame / 8 * 16, 16, 16,
+							Sprite.TRANS_NONE, x, y, Graphics.LEFT | Graphics.TOP);
+					break;
+				default:
+					graphics.drawRegion(sheet, frame % 8 * 16, frame / 8 * 16, 16, 16,
+							Sprite.TRANS_MIRROR, x, y, Graphics.LEFT | Graphics.TOP);
+			}
+		}
+		long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+		return draws / elapsed;
+	}
+
 	private boolean validate(Image image, final int[] spotsToValidate) {
 		for (int i = 0; i < spotsToValidate.length; i += 3) {
 			int c = getPixel(image, spotsToValidate[i], spotsToValidate[i + 1]);
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.event;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class EventQueueTest {
+	private static final String TAG = EventQueueTest.class.getName();
+
+	/**
+	 * Records what happened to it, checked once the queue has drained
+	 */
+	private static class TestEvent extends Event {
+		final int producer;
+		final int sequence;
+		final boolean removable;
+		final AtomicInteger processed = new AtomicInteger();
+		final AtomicInteger recycled = new AtomicInteger();
+		final AtomicInteger queued = new AtomicInteger();
+		final int[] lastProcessed;
+		final List<String> errors;
+		final CountDownLatch done;
+
+		TestEvent(int producer, int sequence, boolean removable, int[] lastProcessed,
+				  List<String> errors, CountDownLatch done) {
+			this.producer = producer;
+			this.sequence = sequence;
+			this.removable = removable;
+			this.lastProcessed = lastProcessed;
+			this.errors = errors;
+			this.done = done;
+		}
+
+		@Override
+		public void process() {
+			processed.incrementAndGet();
+			// only the event thread writes this, so the order of one producer can be checked
+			if (sequence <= lastProcessed[producer]) {
+				errors.add("producer " + producer + ": " + sequence + " after " + lastProcessed[producer]);
+			}
+			lastProcessed[producer] = sequence;
+		}
+
+		@Override
+		public void recycle() {
+			recycled.incrementAndGet();
+			done.countDown();
+		}
+
+		@Override
+		public void enterQueue() {
+			queued.incrementAndGet();
+		}
+
+		@Override
+		public void leaveQueue() {
+			queued.decrementAndGet();
+		}
+
+		@Override
+		public boolean placeableAfter(Event event) {
+			return true;
+		}
+	}
+
+	/**
+	 * Producers post while another thread removes some of the events. Every event must be
+	 * either processed or removed exactly once, and the events of one producer processed in order.
+	 */
+	@Test
+	public void stressProducersAndRemovals() throws Exception {
+		final int producers = 8;
+		final int events = 20000;
+		final EventQueue queue = new EventQueue();
+		final int[] lastProcessed = new int[producers];
+		final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(producers * events);
+		final List<TestEvent> posted = Collections.synchronizedList(new ArrayList<>());
+		queue.startProcessing();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads.add(new Thread(() -> {
+				for (int i = 1; i <= events; i++) {
+					TestEvent event = new TestEvent(producer, i, i % 7 == 0, lastProcessed, errors, done);
+					posted.add(event);
+					queue.postEvent(event);
+					if (i % 1000 == 0) {
+						Thread.yield();
+					}
+				}
+			}));
+		}
+		Thread remover = new Thread(() -> {
+			while (done.getCount() > 0) {
+				queue.removeEvents(event -> ((TestEvent) event).removable);
+			}
+		});
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		remover.start();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		remover.join();
+		queue.stopProcessing();
+
+		assertEquals(Collections.emptyList(), errors);
+		assertEquals(producers * events, posted.size());
+		int removed = 0;
+		for (TestEvent event : posted) {
+			assertEquals(1, event.recycled.get());
+			assertEquals(0, event.queued.get());
+			if (event.processed.get() == 0) {
+				assertTrue(event.removable);
+				removed++;
+			} else {
+				assertEquals(1, event.processed.get());
+			}
+		}
+		Log.i(TAG, removed + " of " + posted.size() + " events removed before processing");
+	}
+
+	/**
+	 * Refuses to follow another coalescing event, like repeated repaints
+	 */
+	private static class CoalescingEvent extends TestEvent {
+		CoalescingEvent(int sequence, int[] lastProcessed, List<String> errors, CountDownLatch done) {
+			super(0, sequence, false, lastProcessed, errors, done);
+		}
+
+		@Override
+		public boolean placeableAfter(Event event) {
+			if (((TestEvent) event).recycled.get() != 0) {
+				errors.add(sequence + " compared with recycled " + ((TestEvent) event).sequence);
+			}
+			return !(event instanceof CoalescingEvent);
+		}
+	}
+
+	/**
+	 * @return an event that holds the event thread until the latch is released
+	 */
+	private static TestEvent blocker(CountDownLatch started, CountDownLatch release,
+									 int[] lastProcessed, List<String> errors, CountDownLatch done) {
+		return new TestEvent(0, 0, false, lastProcessed, errors, done) {
+			@Override
+			public void process() {
+				// outside the order check, nothing is posted before it
+				processed.incrementAndGet();
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					errors.add("blocker interrupted");
+				}
+			}
+		};
+	}
+
+	/**
+	 * A new event is only merged with the newest queued event, never with one that is another type
+	 * or has already been taken by the event thread.
+	 */
+	@Test
+	public void coalescesWithNewestQueuedEvent() throws Exception {
+		final EventQueue queue = new EventQueue();
+		final int[] lastProcessed = new int[1];
+		final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(5);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		queue.startProcessing();
+
+		queue.postEvent(blocker(started, release, lastProcessed, errors, done));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		TestEvent first = new CoalescingEvent(1, lastProcessed, errors, done);
+		TestEvent merged = new CoalescingEvent(2, lastProcessed, errors, done);
+		TestEvent plain = new TestEvent(0, 3, false, lastProcessed, errors, done);
+		TestEvent after = new CoalescingEvent(4, lastProcessed, errors, done);
+		queue.postEvent(first);
+		queue.postEvent(merged);
+		queue.postEvent(plain);
+		queue.postEvent(after);
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		queue.stopProcessing();
+
+		assertEquals(Collections.emptyList(), errors);
+		assertEquals(1, first.processed.get());
+		assertEquals(0, merged.processed.get());
+		assertEquals(1, merged.recycled.get());
+		assertEquals(0, merged.queued.get());
+		assertEquals(1, plain.processed.get());
+		assertEquals(1, after.processed.get());
+	}
+
+	/**
+	 * While the event thread is stuck, a producer gives up on a full ring after a bounded wait
+	 * and drops the event instead of spinning.
+	 */
+	@Test
+	public void fullQueueDropsAfterBoundedWait() throws Exception {
+		final int capacity = 4096;
+		final int extra = 3;
+		final EventQueue queue = new EventQueue();
+		final int[] lastProcessed = new int[1];
+		final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(1 + capacity + extra);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		queue.startProcessing();
+
+		queue.postEvent(blocker(started, release, lastProcessed, errors, done));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		List<TestEvent> posted = new ArrayList<>();
+		long begin = System.nanoTime();
+		for (int i = 1; i <= capacity + extra; i++) {
+			TestEvent event = new TestEvent(0, i, false, lastProcessed, errors, done);
+			posted.add(event);
+			queue.postEvent(event);
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+		release.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		queue.stopProcessing();
+
+		assertEquals(Collections.emptyList(), errors);
+		assertTrue("waited " + elapsed + " ms", elapsed < 5000);
+		for (int i = 0; i < posted.size(); i++) {
+			TestEvent event = posted.get(i);
+			assertEquals(1, event.recycled.get());
+			assertEquals(0, event.queued.get());
+			assertEquals(i < capacity ? 1 : 0, event.processed.get());
+		}
+	}
+
+	/**
+	 * Posting throughput with 1 to 8 producers contending for the tail
+	 */
+	@Test
+	public void benchmarkProducers() throws Exception {
+		for (int producers = 1; producers <= 8; producers *= 2) {
+			// warm up, then measure
+			runProducers(producers, 10000);
+			long elapsed = runProducers(producers, 200000);
+			Log.i(TAG, producers + " producers: " + 200000 * 1000000L / Math.max(1, elapsed)
+					+ " events/ms");
+		}
+	}
+
+	/**
+	 * @return nanoseconds until all events have been posted and processed
+	 */
+	private static long runProducers(int producers, int total) throws InterruptedException {
+		final EventQueue queue = new EventQueue();
+		final int[] lastProcessed = new int[producers];
+		final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(total);
+		final CountDownLatch start = new CountDownLatch(1);
+		final int events = total / producers;
+		final TestEvent[][] prepared = new TestEvent[producers][events];
+		for (int p = 0; p < producers; p++) {
+			for (int i = 0; i < events; i++) {
+				prepared[p][i] = new TestEvent(p, i + 1, false, lastProcessed, errors, done);
+			}
+		}
+		queue.startProcessing();
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final TestEvent[] mine = prepared[p];
+			threads[p] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (TestEvent event : mine) {
+					queue.postEvent(event);
+				}
+			});
+			threads[p].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		long elapsed = System.nanoTime() - begin;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		queue.stopProcessing();
+		assertEquals(Collections.emptyList(), errors);
+		return elapsed;
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import javax.microedition.lcdui.Image;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SpriteTest {
+	private static final String TAG = SpriteTest.class.getName();
+
+	private static final int OPAQUE = 0xff000000;
+	private static final int TRANSPARENT = 0x00000000;
+
+	/**
+	 * A 16x16 frame with only the left half opaque
+	 */
+	private static Image halfImage() {
+		int[] rgb = new int[16 * 16];
+		for (int i = 0; i < rgb.length; i++) {
+			rgb[i] = i % 16 < 8 ? OPAQUE : TRANSPARENT;
+		}
+		return Image.createRGBImage(rgb, 16, 16, true);
+	}
+
+	@Test
+	public void pixelCollisionsFollowOpacity() {
+		Image image = halfImage();
+		Sprite a = new Sprite(image);
+		Sprite b = new Sprite(image);
+
+		// the transparent right half of a over the opaque left half of b
+		a.setPosition(0, 0);
+		b.setPosition(8, 0);
+		assertTrue(a.collidesWith(b, false));
+		assertFalse(a.collidesWith(b, true));
+
+		// opaque halves overlap by one column
+		b.setPosition(7, 0);
+		assertTrue(a.collidesWith(b, true));
+
+		// the image placed over the opaque and over the transparent half of a
+		assertTrue(a.collidesWith(image, 0, 0, true));
+		assertFalse(a.collidesWith(image, 8, 0, true));
+	}
+
+	/**
+	 * A sprite in two indexed managers is indexed by the first one, the second still finds it
+	 */
+	@Test
+	public void sharedLayerStaysInBothManagers() {
+		Image image = halfImage();
+		Sprite shared = new Sprite(image);
+		Sprite first = new Sprite(image);
+		Sprite second = new Sprite(image);
+		first.setPosition(4, 0);
+		second.setPosition(1000, 0);
+		LayerManager a = new LayerManager();
+		LayerManager b = new LayerManager();
+		a.setSpatialIndex(64);
+		b.setSpatialIndex(64);
+		a.append(shared);
+		a.append(first);
+		b.append(shared);
+		b.append(second);
+
+		Layer[] candidates = new Layer[4];
+		assertEquals(1, a.getCollisionCandidates(first, candidates));
+		assertSame(shared, candidates[0]);
+		// far away, but shared layers are always candidates
+		assertEquals(1, b.getCollisionCandidates(second, candidates));
+		assertSame(shared, candidates[0]);
+
+		shared.setPosition(2000, 0);
+		assertEquals(0, a.getCollisionCandidates(first, candidates));
+		b.remove(shared);
+		assertEquals(0, b.getCollisionCandidates(second, candidates));
+	}
+
+	/**
+	 * All pairs of 100 sprites in a small area, like the enemies and shots of a shooter
+	 */
+	@Test
+	public void benchmarkPairwiseCollisions() {
+		Image image = halfImage();
+		Random random = new Random(28);
+		Sprite[] sprites = new Sprite[100];
+		for (int i = 0; i < sprites.length; i++) {
+			sprites[i] = new Sprite(image, 8, 8);
+			sprites[i].setFrame(random.nextInt(sprites[i].getRawFrameCount()));
+			sprites[i].setTransform(random.nextInt(8));
+		}
+
+		int rounds = 100;
+		// warm up the masks before measuring
+		collide(sprites, random, rounds / 10);
+		long start = System.nanoTime();
+		int hits = collide(sprites, random, rounds);
+		long elapsed = System.nanoTime() - start;
+		int checks = rounds * sprites.length * (sprites.length - 1) / 2;
+		Log.i(TAG, checks + " pixel level checks took " + elapsed / 1000000 + " ms, "
+				+ elapsed / checks + " ns each, " + hits + " hits");
+	}
+
+	private static int collide(Sprite[] sprites, Random random, int rounds) {
+		int hits = 0;
+		for (int round = 0; round < rounds; round++) {
+			for (Sprite sprite : sprites) {
+				sprite.setPosition(random.nextInt(64), random.nextInt(64));
+			}
+			for (int i = 0; i < sprites.length; i++) {
+				for (int j = i + 1; j < sprites.length; j++) {
+					if (sprites[i].collidesWith(sprites[j], true)) {
+						hits++;
+					}
+				}
+			}
+		}
+		return hits;
+	}
+}
@@ -0,0 +1,965 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordComparator;
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordFilter;
+import javax.microedition.rms.RecordListener;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreFullException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class RecordStoreTest {
+	private static final String TAG = RecordStoreTest.class.getName();
+
+	private File dir;
+
+	@Before
+	public void setUp() {
+		dir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "rms");
+		deleteDir(dir);
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		deleteDir(dir);
+	}
+
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDir(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
+	private static byte[] record(int recordId, int generation) {
+		byte[] data = new byte[16 + recordId % 48];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (recordId * 31 + generation + i);
+		}
+		return data;
+	}
+
+	@Test
+	public void recordsSurviveReopen() throws Exception {
+		RecordStore store = new LogRecordStoreManager(dir).openRecordStore("save", true);
+		int first = store.addRecord(record(1, 0), 0, record(1, 0).length);
+		int second = store.addRecord(record(2, 0), 0, record(2, 0).length);
+		store.setRecord(first, record(1, 1), 0, record(1, 1).length);
+		store.deleteRecord(second);
+		store.closeRecordStore();
+
+		store = new LogRecordStoreManager(dir).openRecordStore("save", false);
+		assertEquals(1, store.getNumRecords());
+		assertEquals(3, store.getNextRecordID());
+		assertEquals(record(1, 1).length, store.getSize());
+		assertArrayEquals(record(1, 1), store.getRecord(first));
+		try {
+			store.getRecord(second);
+			fail();
+		} catch (InvalidRecordIDException expected) {
+		}
+		store.closeRecordStore();
+	}
+
+	@Test
+	public void legacyStoreIsMigrated() throws Exception {
+		RecordStoreImpl legacy = new RecordStoreImpl(null, "legacy");
+		try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(new File(dir, "legacy.rsh")))) {
+			legacy.writeHeader(dos);
+		}
+		for (int recordId : new int[]{1, 3}) {
+			try (DataOutputStream dos = new DataOutputStream(
+					new FileOutputStream(new File(dir, "legacy." + recordId + ".rsr")))) {
+				byte[] data = record(recordId, 0);
+				dos.writeInt(recordId);
+				dos.writeInt(0);
+				dos.writeInt(data.length);
+				dos.write(data);
+			}
+		}
+
+		LogRecordStoreManager manager = new LogRecordStoreManager(dir);
+		assertArrayEquals(new String[]{"legacy"}, manager.listRecordStores());
+		assertEquals(1, dir.list().length);
+
+		RecordStore store = manager.openRecordStore("legacy", false);
+		assertEquals(2, store.getNumRecords());
+		assertEquals(4, store.getNextRecordID());
+		assertArrayEquals(record(1, 0), store.getRecord(1));
+		assertArrayEquals(record(3, 0), store.getRecord(3));
+		store.closeRecordStore();
+	}
+
+	/**
+	 * 10k random adds, sets and deletes, checked against the expected content after reopening
+	 */
+	@Test
+	public void benchmarkMixedOperations() throws Exception {
+		final int operations = 10000;
+		Random random = new Random(42);
+		byte[][] expected = new byte[operations + 1][];
+
+		long start = System.nanoTime();
+		RecordStore store = new LogRecordStoreManager(dir).openRecordStore("benchmark", true);
+		int added = 0;
+		for (int i = 0; i < operations; i++) {
+			int recordId = 1 + random.nextInt(added + 1);
+			int operation = random.nextInt(4);
+			if (added == 0 || operation < 2) {
+				byte[] data = record(added + 1, i);
+				recordId = store.addRecord(data, 0, data.length);
+				expected[recordId] = data;
+				added = recordId;
+			} else if (expected[recordId] == null) {
+				continue;
+			} else if (operation == 2) {
+				byte[] data = record(recordId, i);
+				store.setRecord(recordId, data, 0, data.length);
+				expected[recordId] = data;
+			} else {
+				store.deleteRecord(recordId);
+				expected[recordId] = null;
+			}
+		}
+		store.closeRecordStore();
+		long elapsed = System.nanoTime() - start;
+		Log.i(TAG, operations + " operations took " + elapsed / 1000000 + " ms, log size "
+				+ new File(dir, "benchmark" + RecordLog.SUFFIX).length() + " bytes");
+
+		store = new LogRecordStoreManager(dir).openRecordStore("benchmark", false);
+		int count = 0;
+		for (int recordId = 1; recordId <= added; recordId++) {
+			if (expected[recordId] != null) {
+				assertArrayEquals(expected[recordId], store.getRecord(recordId));
+				count++;
+			}
+		}
+		assertEquals(count, store.getNumRecords());
+		store.closeRecordStore();
+	}
+
+	/**
+	 * A write the storage refuses leaves the id, count, size and version of the store as they were
+	 */
+	@Test
+	public void refusedWriteKeepsState() throws Exception {
+		final AtomicBoolean failing = new AtomicBoolean();
+		LogRecordStoreManager manager = new LogRecordStoreManager(dir) {
+			@Override
+			public void saveRecord(RecordStoreImpl recordStoreImpl, int recordId, byte[] data,
+								   int offset, int numBytes) throws RecordStoreException {
+				if (failing.get()) {
+					throw new RecordStoreException("refused");
+				}
+				super.saveRecord(recordStoreImpl, recordId, data, offset, numBytes);
+			}
+
+			@Override
+			public void deleteRecord(RecordStoreImpl recordStoreImpl, int recordId)
+					throws RecordStoreException {
+				if (failing.get()) {
+					throw new RecordStoreException("refused");
+				}
+				super.deleteRecord(recordStoreImpl, recordId);
+			}
+		};
+		RecordStore store = manager.openRecordStore("refused", true);
+		store.addRecord(record(1, 0), 0, record(1, 0).length);
+		store.addRecord(record(2, 0), 0, record(2, 0).length);
+		int nextRecordId = store.getNextRecordID();
+		int numRecords = store.getNumRecords();
+		int size = store.getSize();
+		int version = store.getVersion();
+		long lastModified = store.getLastModified();
+
+		failing.set(true);
+		try {
+			store.addRecord(record(3, 0), 0, record(3, 0).length);
+			fail();
+		} catch (RecordStoreException expected) {
+		}
+		try {
+			store.setRecord(1, new byte[100], 0, 100);
+			fail();
+		} catch (RecordStoreException expected) {
+		}
+		try {
+			store.deleteRecord(2);
+			fail();
+		} catch (RecordStoreException expected) {
+		}
+		assertEquals(nextRecordId, store.getNextRecordID());
+		assertEquals(numRecords, store.getNumRecords());
+		assertEquals(size, store.getSize());
+		assertEquals(version, store.getVersion());
+		assertEquals(lastModified, store.getLastModified());
+
+		failing.set(false);
+		assertEquals(nextRecordId, store.addRecord(record(3, 0), 0, record(3, 0).length));
+		store.closeRecordStore();
+	}
+
+	/**
+	 * Random getRecord throughput of stores of 100, 10k and 100k records. The records are
+	 * copied from the log mapping, through the index built by the writes, and through the
+	 * one rebuilt by the first read after reopening the store.
+	 */
+	@Test
+	public void benchmarkRandomReads() throws Exception {
+		final int reads = 200000;
+		for (int records : new int[]{100, 10000, 100000}) {
+			String name = "reads" + records;
+			RecordStore store = new LogRecordStoreManager(dir).openRecordStore(name, true);
+			for (int recordId = 1; recordId <= records; recordId++) {
+				byte[] data = record(recordId, 0);
+				store.addRecord(data, 0, data.length);
+			}
+			Log.i(TAG, records + " records, written: " + readRecords(store, records, reads));
+			store.closeRecordStore();
+
+			store = new LogRecordStoreManager(dir).openRecordStore(name, false);
+			Log.i(TAG, records + " records, reopened: " + readRecords(store, records, reads));
+			store.closeRecordStore();
+		}
+	}
+
+	/**
+	 * Random puts and removes on the log index, checked against a HashMap, so that the backward
+	 * shift on removal is exercised across growth and wrap around.
+	 */
+	@Test
+	public void recordIndexMatchesHashMap() {
+		Random random = new Random(45);
+		RecordIndex index = new RecordIndex();
+		Map<Integer, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 200000; i++) {
+			int recordId = 1 + random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				Integer previous = expected.remove(recordId);
+				assertEquals(previous == null ? -1 : previous, index.remove(recordId));
+			} else {
+				Integer previous = expected.put(recordId, i);
+				assertEquals(previous == null ? -1 : previous, index.put(recordId, i));
+			}
+			assertEquals(expected.size(), index.size());
+		}
+		for (int recordId = 1; recordId <= 5000; recordId++) {
+			Integer offset = expected.get(recordId);
+			assertEquals(offset == null ? -1 : offset, index.get(recordId));
+		}
+		int[] ids = index.keys();
+		assertEquals(expected.size(), ids.length);
+		for (int i = 1; i < ids.length; i++) {
+			assertTrue(ids[i - 1] < ids[i]);
+		}
+	}
+
+	private static String readRecords(RecordStore store, int records, int reads) throws Exception {
+		Random random = new Random(records);
+		byte[] buffer = new byte[64];
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			checksum += store.getRecord(1 + random.nextInt(records), buffer, 0);
+		}
+		long elapsed = System.nanoTime() - start;
+		assertTrue(checksum > 0);
+		return reads * 1000000000L / elapsed + " reads/s";
+	}
+
+	@Test
+	public void keptUpdatedEnumerationFollowsChanges() throws Exception {
+		RecordStore store = new LogRecordStoreManager(dir).openRecordStore("enumeration", true);
+		for (int i = 0; i < 10; i++) {
+			store.addRecord(new byte[]{(byte) (i * 7 % 10)}, 0, 1);
+		}
+		RecordFilter even = candidate -> candidate[0] % 2 == 0;
+		RecordComparator descending = (rec1, rec2) -> rec1[0] > rec2[0] ? RecordComparator.PRECEDES
+				: rec1[0] < rec2[0] ? RecordComparator.FOLLOWS : RecordComparator.EQUIVALENT;
+		RecordEnumeration sorted = store.enumerateRecords(even, descending, true);
+		RecordEnumeration all = store.enumerateRecords(null, null, true);
+
+		store.addRecord(new byte[]{5}, 0, 1);
+		store.addRecord(new byte[]{6}, 0, 1);
+		store.setRecord(1, new byte[]{9}, 0, 1);
+		store.setRecord(2, new byte[]{10}, 0, 1);
+		store.deleteRecord(3);
+
+		int[] expected = {2, 5, 9, 12, 7};
+		assertEquals(expected.length, sorted.numRecords());
+		for (int recordId : expected) {
+			assertEquals(recordId, sorted.nextRecordId());
+		}
+		assertEquals(11, all.numRecords());
+		int previous = 0;
+		while (all.hasNextElement()) {
+			int recordId = all.nextRecordId();
+			assertTrue(recordId > previous && recordId != 3);
+			previous = recordId;
+		}
+		sorted.destroy();
+		all.destroy();
+		store.closeRecordStore();
+	}
+
+	@Test
+	public void listenersGetTheirEvents() throws Exception {
+		RecordStore store = new LogRecordStoreManager(dir).openRecordStore("listeners", true);
+		final StringBuilder plainEvents = new StringBuilder();
+		final StringBuilder extendedEvents = new StringBuilder();
+		RecordListener plain = new RecordListener() {
+			@Override
+			public void recordAdded(RecordStore recordStore, int recordId) {
+				plainEvents.append('a').append(recordId);
+			}
+
+			@Override
+			public void recordChanged(RecordStore recordStore, int recordId) {
+				plainEvents.append('c').append(recordId);
+			}
+
+			@Override
+			public void recordDeleted(RecordStore recordStore, int recordId) {
+				plainEvents.append('d').append(recordId);
+			}
+		};
+		ExtendedRecordListener extended = new ExtendedRecordListener() {
+			@Override
+			public void recordEvent(int type, long timestamp, RecordStore recordStore, int recordId) {
+				extendedEvents.append(type).append(recordId);
+			}
+
+			@Override
+			public void recordAdded(RecordStore recordStore, int recordId) {
+				fail();
+			}
+
+			@Override
+			public void recordChanged(RecordStore recordStore, int recordId) {
+				fail();
+			}
+
+			@Override
+			public void recordDeleted(RecordStore recordStore, int recordId) {
+				fail();
+			}
+		};
+		store.addRecordListener(plain);
+		store.addRecordListener(plain);
+		store.addRecordListener(extended);
+
+		store.addRecord(new byte[]{1}, 0, 1);
+		store.getRecord(1);
+		store.getRecord(1, new byte[1], 0);
+		store.setRecord(1, new byte[]{2}, 0, 1);
+		store.removeRecordListener(plain);
+		store.deleteRecord(1);
+
+		assertEquals("a1c1", plainEvents.toString());
+		assertEquals("1121213141", extendedEvents.toString());
+
+		// reads cost nothing once there is nobody to tell
+		store.removeRecordListener(extended);
+		store.addRecord(new byte[8], 0, 8);
+		byte[] buffer = new byte[8];
+		int reads = 1000000;
+		long start = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			store.getRecord(2, buffer, 0);
+		}
+		long elapsed = System.nanoTime() - start;
+		Log.i(TAG, reads + " reads without listeners took " + elapsed / 1000000 + " ms");
+		assertEquals("1121213141", extendedEvents.toString());
+		store.closeRecordStore();
+	}
+
+	@Test
+	public void quotaLimitsStores() throws Exception {
+		LogRecordStoreManager.setQuota(1000);
+		try {
+			LogRecordStoreManager manager = new LogRecordStoreManager(dir);
+			RecordStore first = manager.openRecordStore("first", true);
+			first.addRecord(new byte[600], 0, 600);
+			first.closeRecordStore();
+
+			RecordStore second = manager.openRecordStore("second", true);
+			assertEquals(400, second.getSizeAvailable());
+			second.addRecord(new byte[300], 0, 300);
+			assertEquals(100, second.getSizeAvailable());
+			try {
+				second.addRecord(new byte[200], 0, 200);
+				fail();
+			} catch (RecordStoreFullException expected) {
+			}
+			// replacing a record needs room for the growth only
+			second.setRecord(1, new byte[400], 0, 400);
+			second.closeRecordStore();
+
+			assertEquals(1000, LogRecordStoreManager.getUsedSize(dir));
+		} finally {
+			LogRecordStoreManager.setQuota(0);
+		}
+	}
+
+	/**
+	 * @return true if the data was written whole by {@link #record(int, int)}
+	 */
+	private static boolean isRecord(byte[] data) {
+		if (data == null || data.length < 16) {
+			return false;
+		}
+		for (int i = 1; i < data.length; i++) {
+			if ((byte) (data[i] - data[i - 1]) != 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writer threads share a store, each changing its own records, and also write a store of
+	 * their own, while reader threads read the shared store. Two more threads keep opening and
+	 * closing one store, so each close races with an open of the other. Run with and without
+	 * write-behind.
+	 */
+	@Test
+	public void stressConcurrentAccess() throws Exception {
+		for (boolean writeBehind : new boolean[]{false, true}) {
+			WriteBehindJournal.setEnabled(writeBehind);
+			try {
+				stressConcurrentAccess("shared" + writeBehind);
+			} finally {
+				WriteBehindJournal.setEnabled(false);
+			}
+		}
+	}
+
+	private void stressConcurrentAccess(final String sharedName) throws Exception {
+		final int writers = 4;
+		final int readers = 2;
+		final int cyclers = 2;
+		final int operations = 2000;
+		final LogRecordStoreManager manager = new LogRecordStoreManager(dir);
+		final RecordStore shared = manager.openRecordStore(sharedName, true);
+		final List<Map<Integer, byte[]>> expected = new ArrayList<>();
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+		final AtomicBoolean done = new AtomicBoolean();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int w = 0; w < writers; w++) {
+			final Map<Integer, byte[]> own = new HashMap<>();
+			expected.add(own);
+			final String ownName = sharedName + "." + w;
+			threads.add(new Thread(() -> {
+				try {
+					Random random = new Random(ownName.hashCode());
+					RecordStore store = manager.openRecordStore(ownName, true);
+					List<Integer> ids = new ArrayList<>();
+					for (int i = 0; i < operations; i++) {
+						int operation = random.nextInt(4);
+						if (ids.isEmpty() || operation < 2) {
+							byte[] data = record(random.nextInt(1000) + 1, i);
+							int recordId = shared.addRecord(data, 0, data.length);
+							if (!Arrays.equals(data, shared.getRecord(recordId))) {
+								throw new AssertionError("Record " + recordId + " was overwritten");
+							}
+							ids.add(recordId);
+							own.put(recordId, data);
+						} else if (operation == 2) {
+							int recordId = ids.get(random.nextInt(ids.size()));
+							byte[] data = record(recordId, i);
+							shared.setRecord(recordId, data, 0, data.length);
+							own.put(recordId, data);
+						} else {
+							Integer recordId = ids.remove(random.nextInt(ids.size()));
+							shared.deleteRecord(recordId);
+							own.remove(recordId);
+						}
+						byte[] data = record(i + 1, i);
+						store.addRecord(data, 0, data.length);
+					}
+					store.closeRecordStore();
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}));
+		}
+		for (int r = 0; r < readers; r++) {
+			threads.add(new Thread(() -> {
+				try {
+					Random random = new Random();
+					byte[] buffer = new byte[64];
+					while (!done.get()) {
+						int recordId = 1 + random.nextInt(shared.getNextRecordID());
+						try {
+							byte[] data = shared.getRecord(recordId);
+							int size = shared.getRecord(recordId, buffer, 0);
+							if (!isRecord(data) || !isRecord(Arrays.copyOf(buffer, size))) {
+								throw new AssertionError("Record " + recordId + " is torn");
+							}
+						} catch (InvalidRecordIDException e) {
+							// not added yet or already deleted
+						}
+					}
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}));
+		}
+
+		final String cycledName = sharedName + ".cycled";
+		for (int c = 0; c < cyclers; c++) {
+			final int cycler = c;
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < operations / 4; i++) {
+						RecordStore store = manager.openRecordStore(cycledName, true);
+						byte[] data = record(cycler, i);
+						int recordId = store.addRecord(data, 0, data.length);
+						if (!Arrays.equals(data, store.getRecord(recordId))) {
+							throw new AssertionError("Record " + recordId + " was overwritten");
+						}
+						store.closeRecordStore();
+					}
+				} catch (Throwable e) {
+					errors.add(e);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (int w = 0; w < writers; w++) {
+			threads.get(w).join();
+		}
+		for (int c = 0; c < cyclers; c++) {
+			threads.get(writers + readers + c).join();
+		}
+		done.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (!errors.isEmpty()) {
+			throw new AssertionError(errors.get(0));
+		}
+
+		int count = 0;
+		int size = 0;
+		for (Map<Integer, byte[]> own : expected) {
+			count += own.size();
+			for (byte[] data : own.values()) {
+				size += data.length;
+			}
+		}
+		assertEquals(count, shared.getNumRecords());
+		assertEquals(size, shared.getSize());
+		assertEquals(writers * operations, shared.getVersion());
+		shared.closeRecordStore();
+
+		RecordStore reopened = new LogRecordStoreManager(dir).openRecordStore(sharedName, false);
+		assertEquals(count, reopened.getNumRecords());
+		for (Map<Integer, byte[]> own : expected) {
+			for (Map.Entry<Integer, byte[]> entry : own.entrySet()) {
+				assertArrayEquals(entry.getValue(), reopened.getRecord(entry.getKey()));
+			}
+		}
+		RecordEnumeration enumeration = reopened.enumerateRecords(null, null, false);
+		assertEquals(count, enumeration.numRecords());
+		reopened.closeRecordStore();
+		for (int w = 0; w < writers; w++) {
+			RecordStore own = new LogRecordStoreManager(dir).openRecordStore(sharedName + "." + w, false);
+			assertEquals(operations, own.getNumRecords());
+			own.closeRecordStore();
+		}
+		RecordStore cycled = new LogRecordStoreManager(dir).openRecordStore(cycledName, false);
+		assertEquals(cyclers * operations / 4, cycled.getNumRecords());
+		cycled.closeRecordStore();
+	}
+
+	@Test
+	public void snapshotRoundTrip() throws Exception {
+		File source = new File(dir, "source");
+		LogRecordStoreManager manager = new LogRecordStoreManager(source);
+		Map<String, Map<Integer, byte[]>> stores = new HashMap<>();
+		Random random = new Random(5);
+		for (int s = 0; s < 3; s++) {
+			String name = "store" + s;
+			Map<Integer, byte[]> records = new HashMap<>();
+			RecordStore store = manager.openRecordStore(name, true);
+			for (int i = 0; i < 200; i++) {
+				byte[] data = new byte[random.nextInt(300)];
+				random.nextBytes(data);
+				records.put(store.addRecord(data, 0, data.length), data);
+			}
+			// the ids of deleted records, also the last one, are not handed out again
+			store.deleteRecord(7);
+			records.remove(7);
+			store.deleteRecord(200);
+			records.remove(200);
+			store.closeRecordStore();
+			stores.put(name, records);
+		}
+
+		for (int flags : new int[]{0, RecordStoreSnapshot.FLAG_DEFLATE}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(3, RecordStoreSnapshot.export(source, out, flags));
+			byte[] snapshot = out.toByteArray();
+			Log.i(TAG, "Snapshot with flags " + flags + ": " + snapshot.length + " bytes");
+
+			File target = new File(dir, "target" + flags);
+			RecordStore stale = new LogRecordStoreManager(target).openRecordStore("stale", true);
+			stale.addRecord(new byte[1], 0, 1);
+			stale.closeRecordStore();
+			assertEquals(3, RecordStoreSnapshot.restore(target, new ByteArrayInputStream(snapshot)));
+
+			LogRecordStoreManager imported = new LogRecordStoreManager(target);
+			assertEquals(3, imported.listRecordStores().length);
+			for (Map.Entry<String, Map<Integer, byte[]>> entry : stores.entrySet()) {
+				RecordStore store = imported.openRecordStore(entry.getKey(), false);
+				assertEquals(entry.getValue().size(), store.getNumRecords());
+				for (Map.Entry<Integer, byte[]> record : entry.getValue().entrySet()) {
+					byte[] data = store.getRecord(record.getKey());
+					assertArrayEquals(record.getValue(), data == null ? new byte[0] : data);
+				}
+				assertEquals(201, store.getNextRecordID());
+				store.closeRecordStore();
+			}
+
+			// a damaged snapshot leaves the stores alone
+			snapshot[snapshot.length / 2] ^= 1;
+			try {
+				RecordStoreSnapshot.restore(target, new ByteArrayInputStream(snapshot));
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals(3, new LogRecordStoreManager(target).listRecordStores().length);
+			assertEquals(3, target.list().length);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void foreignFileIsRejected() throws Exception {
+		File file = new File(dir, "foreign" + RecordLog.SUFFIX);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write("This is not a record log".getBytes());
+		}
+		RecordLog.open(file);
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return data;
+		}
+	}
+
+	private static void writeFile(File file, byte[] data) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(data);
+		}
+	}
+
+	private static boolean matches(RecordLog log, Map<Integer, byte[]> state) {
+		if (log.getNumRecords() != state.size()) {
+			return false;
+		}
+		for (Map.Entry<Integer, byte[]> entry : state.entrySet()) {
+			byte[] data = new byte[entry.getValue().length];
+			if (log.getRecordSize(entry.getKey()) != data.length) {
+				return false;
+			}
+			log.read(entry.getKey(), data, 0);
+			if (!Arrays.equals(entry.getValue(), data)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Cut or zero a log left open at random points, as a process killed during a write would,
+	 * the reopened log has to hold the state after some prefix of the changes
+	 */
+	@Test
+	public void killedWriteRecoversPrefix() throws Exception {
+		final int operations = 300;
+		Random random = new Random(7);
+		List<Map<Integer, byte[]>> states = new ArrayList<>();
+		Map<Integer, byte[]> state = new HashMap<>();
+		states.add(new HashMap<>(state));
+
+		File file = new File(dir, "killed" + RecordLog.SUFFIX);
+		RecordLog log = RecordLog.open(file);
+		for (int version = 1; version <= operations; version++) {
+			int recordId = 1 + random.nextInt(50);
+			if (state.containsKey(recordId) && random.nextInt(3) == 0) {
+				log.delete(recordId, version, version);
+				state.remove(recordId);
+			} else {
+				byte[] data = record(recordId, version);
+				log.put(recordId, data, 0, data.length, version, version);
+				state.put(recordId, data);
+			}
+			states.add(new HashMap<>(state));
+		}
+		byte[] image = readFile(file);
+
+		File copy = new File(dir, "copy" + RecordLog.SUFFIX);
+		for (int i = 0; i < 100; i++) {
+			int cut = RecordLog.HEADER_SIZE + random.nextInt(image.length - RecordLog.HEADER_SIZE);
+			byte[] damaged;
+			if (i % 2 == 0) {
+				damaged = Arrays.copyOf(image, cut);
+			} else {
+				damaged = image.clone();
+				Arrays.fill(damaged, cut, damaged.length, (byte) 0);
+			}
+			writeFile(copy, damaged);
+			RecordLog recovered = RecordLog.open(copy);
+			assertTrue("cut at " + cut, matches(recovered, states.get(recovered.getVersion())));
+			recovered.close();
+
+			// the repaired log has to open clean
+			recovered = RecordLog.open(copy);
+			assertTrue("reopen after cut at " + cut, matches(recovered, states.get(recovered.getVersion())));
+			recovered.close();
+		}
+
+		// the compaction drops the delete of the highest id, a kill after it must not give it out again
+		int highest = log.getLastRecordId() + 1;
+		byte[] data = record(highest, operations + 1);
+		log.put(highest, data, 0, data.length, operations + 1, operations + 1);
+		log.delete(highest, operations + 2, operations + 2);
+		log.compact();
+		int compacted = (int) file.length();
+		Map<Integer, byte[]> before = new HashMap<>(state);
+		data = record(1, operations + 3);
+		log.put(1, data, 0, data.length, operations + 3, operations + 3);
+		state.put(1, data);
+		image = readFile(file);
+		for (int cut : new int[]{compacted + 1, image.length}) {
+			writeFile(copy, Arrays.copyOf(image, cut));
+			RecordLog recovered = RecordLog.open(copy);
+			assertTrue("cut at " + cut, matches(recovered, cut == image.length ? state : before));
+			assertEquals(highest, recovered.getLastRecordId());
+			recovered.close();
+		}
+		log.close();
+		log = RecordLog.open(file);
+		assertTrue(matches(log, state));
+		log.close();
+	}
+
+	/**
+	 * A log left open with a torn write is read as it was before the write,
+	 * without touching the file, as the export does with the logs of a MIDlet
+	 */
+	@Test
+	public void readOnlyLogIsNotRepaired() throws Exception {
+		File file = new File(dir, "readonly" + RecordLog.SUFFIX);
+		RecordLog log = RecordLog.open(file);
+		Map<Integer, byte[]> state = new HashMap<>();
+		for (int recordId = 1; recordId <= 10; recordId++) {
+			byte[] data = record(recordId, recordId);
+			log.put(recordId, data, 0, data.length, recordId, recordId);
+			state.put(recordId, data);
+		}
+		byte[] image = readFile(file);
+		log.close();
+
+		// the last entry is cut in half, the rest of the file is garbage
+		File copy = new File(dir, "readonly.copy" + RecordLog.SUFFIX);
+		byte[] damaged = image.clone();
+		byte[] last = record(10, 10);
+		int cut = RecordLog.HEADER_SIZE;
+		while (!Arrays.equals(last, Arrays.copyOfRange(image, cut, cut + last.length))) {
+			cut++;
+		}
+		cut++;
+		Arrays.fill(damaged, cut, damaged.length, (byte) 0x5a);
+		writeFile(copy, damaged);
+		state.remove(10);
+
+		RecordLog reader = RecordLog.openReadOnly(copy);
+		assertTrue(matches(reader, state));
+		assertEquals(10, reader.getLastRecordId());
+		try {
+			reader.put(11, new byte[1], 0, 1, 11, 11);
+			fail();
+		} catch (IOException expected) {
+		}
+		reader.close();
+		assertArrayEquals(damaged, readFile(copy));
+	}
+
+	/**
+	 * Queued changes are visible right away and survive a kill once flushed
+	 */
+	@Test
+	public void writeBehindIsDurable() throws Exception {
+		WriteBehindJournal.setEnabled(true);
+		try {
+			RecordStore store = new LogRecordStoreManager(dir).openRecordStore("journal", true);
+			for (int generation = 0; generation < 100; generation++) {
+				byte[] data = record(1, generation);
+				if (generation == 0) {
+					store.addRecord(data, 0, data.length);
+				} else {
+					store.setRecord(1, data, 0, data.length);
+				}
+			}
+			store.addRecord(record(2, 0), 0, record(2, 0).length);
+			store.addRecord(record(3, 0), 0, record(3, 0).length);
+			store.deleteRecord(2);
+			try {
+				store.getRecord(2);
+				fail();
+			} catch (InvalidRecordIDException expected) {
+			}
+			assertArrayEquals(record(1, 99), store.getRecord(1));
+			RecordEnumeration enumeration = store.enumerateRecords(null, null, false);
+			assertEquals(1, enumeration.nextRecordId());
+			assertEquals(3, enumeration.nextRecordId());
+			assertFalse(enumeration.hasNextElement());
+
+			WriteBehindJournal.flushAll();
+			// the store is left open, as by a process killed right after the flush
+			writeFile(new File(dir, "killed" + RecordLog.SUFFIX), readFile(new File(dir, "journal" + RecordLog.SUFFIX)));
+
+			RecordStore killed = new LogRecordStoreManager(dir).openRecordStore("killed", false);
+			assertEquals(store.getVersion(), killed.getVersion());
+			assertEquals(2, killed.getNumRecords());
+			assertEquals(4, killed.getNextRecordID());
+			assertArrayEquals(record(1, 99), killed.getRecord(1));
+			assertArrayEquals(record(3, 0), killed.getRecord(3));
+			killed.closeRecordStore();
+			store.closeRecordStore();
+		} finally {
+			WriteBehindJournal.setEnabled(false);
+		}
+	}
+
+	/**
+	 * A failed flush keeps the changes it did not write, a newer change of the same record wins
+	 */
+	@Test
+	public void failedFlushRequeuesChanges() throws Exception {
+		File file = new File(dir, "failing" + RecordLog.SUFFIX);
+		RecordLog log = RecordLog.open(file);
+		// the mapping stays writable, but growing it fails once the file is closed
+		log.close();
+		byte[] small = record(1, 1);
+		byte[] large = new byte[64 * 1024];
+		WriteBehindJournal.put(log, 1, small, 1, 1);
+		WriteBehindJournal.put(log, 2, large, 2, 2);
+		WriteBehindJournal.put(log, 3, record(3, 3), 3, 3);
+		try {
+			WriteBehindJournal.close(log);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertNull(WriteBehindJournal.get(log, 1));
+		assertSame(large, WriteBehindJournal.get(log, 2).data);
+		assertArrayEquals(record(3, 3), WriteBehindJournal.get(log, 3).data);
+
+		WriteBehindJournal.put(log, 2, record(2, 4), 4, 4);
+		WriteBehindJournal.close(log);
+		assertNull(WriteBehindJournal.get(log, 2));
+
+		log = RecordLog.open(file);
+		Map<Integer, byte[]> state = new HashMap<>();
+		state.put(1, small);
+		state.put(2, record(2, 4));
+		state.put(3, record(3, 3));
+		assertTrue(matches(log, state));
+		assertEquals(4, log.getVersion());
+		log.close();
+	}
+
+	/**
+	 * Once the flushes of a log keep failing, a new change is refused instead of being queued
+	 * behind the ones that can't be written
+	 */
+	@Test
+	public void failingFlushesRefuseWrites() throws Exception {
+		RecordLog log = RecordLog.open(new File(dir, "refusing" + RecordLog.SUFFIX));
+		log.close();
+		WriteBehindJournal.put(log, 1, new byte[64 * 1024], 1, 1);
+		for (int i = 0; i < 3; i++) {
+			try {
+				WriteBehindJournal.close(log);
+				fail();
+			} catch (IOException expected) {
+			}
+		}
+		try {
+			WriteBehindJournal.put(log, 2, record(2, 2), 2, 2);
+			fail();
+		} catch (RecordStoreException expected) {
+		}
+		assertNull(WriteBehindJournal.get(log, 2));
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4.class)
+public class ObjectPoolTest {
+
+	private static class Item {
+		final AtomicBoolean owned = new AtomicBoolean();
+	}
+
+	@Test
+	public void popReturnsPushedObject() {
+		ObjectPool<Item> pool = new ObjectPool<>(4);
+		assertNull(pool.pop());
+
+		Item item = new Item();
+		pool.push(item);
+		assertSame(item, pool.pop());
+		assertNull(pool.pop());
+	}
+
+	@Test
+	public void fullPoolDropsObjects() {
+		ObjectPool<Item> pool = new ObjectPool<>(2);
+		pool.push(new Item());
+		pool.push(new Item());
+		pool.push(new Item());
+		assertEquals(1, pool.getDrops());
+	}
+
+	@Test
+	public void objectIsNeverHandedToTwoOwners() throws InterruptedException {
+		final ObjectPool<Item> pool = new ObjectPool<>(16);
+		final int threads = 8;
+		final int iterations = 100000;
+		final AtomicInteger conflicts = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < iterations; i++) {
+					Item item = pool.pop();
+					if (item == null) {
+						item = new Item();
+					}
+					if (!item.owned.compareAndSet(false, true)) {
+						conflicts.incrementAndGet();
+					}
+					item.owned.set(false);
+					pool.push(item);
+				}
+			});
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		assertEquals(0, conflicts.get());
+	}
+}
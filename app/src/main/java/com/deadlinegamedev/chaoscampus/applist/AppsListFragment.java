@@ -19,7 +19,9 @@ package com.deadlinegamedev.chaoscampus.applist;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.ProgressDialog;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
@@ -46,6 +48,7 @@ import com.nononsenseapps.filepicker.FilePickerActivity;
 import com.nononsenseapps.filepicker.Utils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -53,6 +56,9 @@ import java.io.OutputStream;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import javax.microedition.rms.impl.RecordStoreSnapshot;
+import javax.microedition.util.MethodCounters;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
@@ -64,6 +70,7 @@ import androidx.fragment.app.ListFragment;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.Single;
 import io.reactivex.SingleObserver;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
@@ -73,6 +80,7 @@ import io.reactivex.schedulers.Schedulers;
 import com.deadlinegamedev.chaoscampus.MainActivity;
 import com.deadlinegamedev.chaoscampus.R;
 import com.deadlinegamedev.chaoscampus.appsdb.AppRepository;
+import com.deadlinegamedev.chaoscampus.config.Config;
 import com.deadlinegamedev.chaoscampus.config.ConfigActivity;
 import com.deadlinegamedev.chaoscampus.config.TemplatesActivity;
 import com.deadlinegamedev.chaoscampus.donations.DonationsActivity;
@@ -94,6 +102,12 @@ public class AppsListFragment extends ListFragment {
 	private String appSort;
 	private String appPath;
 	private static final int FILE_CODE = 0;
+	private static final int IMPORT_SAVES_CODE = 1;
+	private static final String IMPORT_TITLE_KEY = "importTitle";
+	/**
+	 * The app whose saves are replaced by the snapshot being picked
+	 */
+	private String importTitle;
 	private static boolean isRunning = false;
 
 	@Override
@@ -104,6 +118,15 @@ public class AppsListFragment extends ListFragment {
 		appSort = getArguments().getString(MainActivity.APP_SORT_KEY);
 		appPath = getArguments().getString(MainActivity.APP_PATH_KEY);
 		adapter = new AppsListAdapter(getActivity());
+		if (savedInstanceState != null) {
+			importTitle = savedInstanceState.getString(IMPORT_TITLE_KEY);
+		}
+	}
+
+	@Override
+	public void onSaveInstanceState(@NonNull Bundle outState) {
+		super.onSaveInstanceState(outState);
+		outState.putString(IMPORT_TITLE_KEY, importTitle);
 	}
 
 	@Override
@@ -151,6 +174,7 @@ public class AppsListFragment extends ListFragment {
 		if(appRepository.getAll().blockingFirst().isEmpty()) {
 			SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getContext());
 			String encoding = sp.getString("pref_encoding", "ISO-8859-1");
+			String methodCounters = sp.getString("pref_method_counters", MethodCounters.MODE_OFF);
 			ProgressDialog dialog = new ProgressDialog(getActivity());
 			dialog.setIndeterminate(true);
 			dialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
@@ -166,7 +190,7 @@ public class AppsListFragment extends ListFragment {
 				copyStream(inputStream, outputStream);
 				outputStream.close();
 
-				converter.convert(tempFile.getAbsolutePath(), encoding)
+				converter.convert(tempFile.getAbsolutePath(), encoding, methodCounters)
 						.subscribeOn(Schedulers.computation())
 						.observeOn(AndroidSchedulers.mainThread())
 						.subscribeWith(new SingleObserver<String>() {
@@ -237,6 +261,12 @@ public class AppsListFragment extends ListFragment {
 				File file = Utils.getFileForUri(uri);
 				convertJar(file.getAbsolutePath());
 			}
+		} else if (requestCode == IMPORT_SAVES_CODE && resultCode == Activity.RESULT_OK && importTitle != null) {
+			List<Uri> files = Utils.getSelectedFilesFromResult(data);
+			if (!files.isEmpty()) {
+				showImportSavesDialog(importTitle, Utils.getFileForUri(files.get(0)));
+			}
+			importTitle = null;
 		}
 	}
 
@@ -244,13 +274,14 @@ public class AppsListFragment extends ListFragment {
 	private void convertJar(String path) {
 		SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getContext());
 		String encoding = sp.getString("pref_encoding", "ISO-8859-1");
+		String methodCounters = sp.getString("pref_method_counters", MethodCounters.MODE_OFF);
 		ProgressDialog dialog = new ProgressDialog(getActivity());
 		dialog.setIndeterminate(true);
 		dialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
 		dialog.setCancelable(false);
 		dialog.setMessage(getText(R.string.converting_message));
 		dialog.setTitle(R.string.converting_wait);
-		converter.convert(path, encoding)
+		converter.convert(path, encoding, methodCounters)
 				.subscribeOn(Schedulers.computation())
 				.observeOn(AndroidSchedulers.mainThread())
 				.subscribeWith(new SingleObserver<String>() {
@@ -341,6 +372,103 @@ public class AppsListFragment extends ListFragment {
 		builder.show();
 	}
 
+	private File getSavesFile(AppItem item) {
+		return new File(Config.SAVES_DIR, item.getTitle() + RecordStoreSnapshot.SUFFIX);
+	}
+
+	/**
+	 * The stores are mapped by the MIDlet process, they can't be copied or replaced while it runs
+	 */
+	private boolean isMidletRunning() {
+		ActivityManager manager = (ActivityManager) getActivity().getSystemService(Context.ACTIVITY_SERVICE);
+		List<ActivityManager.RunningAppProcessInfo> processes = manager.getRunningAppProcesses();
+		if (processes == null) {
+			return false;
+		}
+		String name = getActivity().getPackageName() + ":midlet";
+		for (ActivityManager.RunningAppProcessInfo process : processes) {
+			if (name.equals(process.processName)) {
+				Toast.makeText(getActivity(), R.string.saves_midlet_running, Toast.LENGTH_LONG).show();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void exportSaves(AppItem item) {
+		if (isMidletRunning()) {
+			return;
+		}
+		File file = getSavesFile(item);
+		Disposable disposable = Single.fromCallable(() -> {
+			file.getParentFile().mkdirs();
+			try (OutputStream out = new FileOutputStream(file)) {
+				return RecordStoreSnapshot.export(new File(Config.DATA_DIR, item.getTitle()), out,
+						RecordStoreSnapshot.FLAG_DEFLATE);
+			}
+		})
+				.subscribeOn(Schedulers.io())
+				.observeOn(AndroidSchedulers.mainThread())
+				.subscribe(count -> {
+					if (!isAdded()) return;
+					Toast.makeText(getActivity(), getString(R.string.saves_exported, file.getPath()),
+							Toast.LENGTH_LONG).show();
+				}, e -> {
+					e.printStackTrace();
+					file.delete();
+					if (!isAdded()) return;
+					Toast.makeText(getActivity(), R.string.error, Toast.LENGTH_SHORT).show();
+				});
+		compositeDisposable.add(disposable);
+	}
+
+	private void pickSavesToImport(AppItem item) {
+		if (isMidletRunning()) {
+			return;
+		}
+		importTitle = item.getTitle();
+		File dir = new File(Config.SAVES_DIR);
+		Intent i = new Intent(getActivity(), FilteredFilePickerActivity.class);
+		i.putExtra(FilePickerActivity.EXTRA_ALLOW_MULTIPLE, false);
+		i.putExtra(FilePickerActivity.EXTRA_SINGLE_CLICK, true);
+		i.putExtra(FilePickerActivity.EXTRA_ALLOW_CREATE_DIR, false);
+		i.putExtra(FilePickerActivity.EXTRA_MODE, FilePickerActivity.MODE_FILE);
+		i.putExtra(FilePickerActivity.EXTRA_START_PATH,
+				dir.isDirectory() ? dir.getPath() : FilteredFilePickerFragment.getLastPath());
+		i.putExtra(FilteredFilePickerActivity.EXTRA_EXTENSIONS, new String[]{RecordStoreSnapshot.SUFFIX});
+		startActivityForResult(i, IMPORT_SAVES_CODE);
+	}
+
+	private void showImportSavesDialog(final String title, final File file) {
+		AlertDialog.Builder builder = new AlertDialog.Builder(getActivity())
+				.setTitle(R.string.action_context_import_saves)
+				.setMessage(getString(R.string.message_import_saves, file.getPath()))
+				.setPositiveButton(android.R.string.yes, (dialogInterface, i) -> {
+					// the MIDlet may have been started while the file was picked
+					if (isMidletRunning()) {
+						return;
+					}
+					Disposable disposable = Single.fromCallable(() -> {
+						try (InputStream in = new FileInputStream(file)) {
+							return RecordStoreSnapshot.restore(new File(Config.DATA_DIR, title), in);
+						}
+					})
+							.subscribeOn(Schedulers.io())
+							.observeOn(AndroidSchedulers.mainThread())
+							.subscribe(count -> {
+								if (!isAdded()) return;
+								Toast.makeText(getActivity(), R.string.saves_imported, Toast.LENGTH_SHORT).show();
+							}, e -> {
+								e.printStackTrace();
+								if (!isAdded()) return;
+								Toast.makeText(getActivity(), R.string.error, Toast.LENGTH_SHORT).show();
+							});
+					compositeDisposable.add(disposable);
+				})
+				.setNegativeButton(android.R.string.no, null);
+		builder.show();
+	}
+
 	@Override
 	public void onListItemClick(ListView l, View v, int position, long id) {
 		AppItem item = adapter.getItem(position);
@@ -352,8 +480,9 @@ public class AppsListFragment extends ListFragment {
 	@Override
 	public void onCreateContextMenu(ContextMenu menu, View v, ContextMenu.ContextMenuInfo menuInfo) {
 		super.onCreateContextMenu(menu, v, menuInfo);
-		//MenuInflater inflater = getActivity().getMenuInflater();
-		//inflater.inflate(R.menu.context_main, menu);
+		// only the saves items are visible, the others stay hidden in this build
+		MenuInflater inflater = getActivity().getMenuInflater();
+		inflater.inflate(R.menu.context_main, menu);
 	}
 
 	@Override
@@ -386,6 +515,12 @@ public class AppsListFragment extends ListFragment {
 				i.putExtra(ConfigActivity.SHOW_SETTINGS_KEY, true);
 				startActivity(i);
 				break;
+			case R.id.action_context_export_saves:
+				exportSaves(appItem);
+				break;
+			case R.id.action_context_import_saves:
+				pickSavesToImport(appItem);
+				break;
 			case R.id.action_context_delete:
 				showDeleteDialog(index);
 				break;
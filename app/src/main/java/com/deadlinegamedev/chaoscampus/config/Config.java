@@ -28,6 +28,7 @@ public class Config {
 	public static final String DEFAULT_CONFIG_DIR = EMULATOR_DIR + "/default/";
 	public static final String CONFIGS_DIR = EMULATOR_DIR + "/configs/";
 	public static final String TEMPLATES_DIR = EMULATOR_DIR + "/templates/";
+	public static final String SAVES_DIR = EMULATOR_DIR + "/saves/";
 	public static final String APP_DIR = EMULATOR_DIR + MIDLET_DIR;
 	public static final String TEMP_DEX_DIR = "/tmp_dex";
 	public static final String TEMP_DEX_OPT_DIR = "/tmp_dexopt";
@@ -38,5 +39,6 @@ public class Config {
 	public static final String MIDLET_MANIFEST_FILE = MIDLET_DEX_FILE + ".conf";
 	public static final String MIDLET_KEYLAYOUT_FILE = "/VirtualKeyboardLayout";
 	public static final String MIDLET_CONFIG_FILE = "/config.xml";
+	public static final String MIDLET_METHODS_FILE = "/methods.txt";
 
 }
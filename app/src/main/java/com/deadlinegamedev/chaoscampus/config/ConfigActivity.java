@@ -26,6 +26,7 @@ import android.os.Environment;
 import android.preference.PreferenceManager;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.text.format.Formatter;
 import android.util.SparseIntArray;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -35,6 +36,7 @@ import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.SeekBar;
 import android.widget.Spinner;
+import android.widget.TextView;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -48,10 +50,17 @@ import java.util.Locale;
 import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.Font;
 import javax.microedition.lcdui.event.EventQueue;
+import javax.microedition.lcdui.event.LatencyTracer;
+import javax.microedition.lcdui.event.TouchCoalescer;
+import javax.microedition.lcdui.game.LayerManager;
 import javax.microedition.lcdui.pointer.FixedKeyboard;
 import javax.microedition.lcdui.pointer.VirtualKeyboard;
+import javax.microedition.rms.impl.LogRecordStoreManager;
+import javax.microedition.rms.impl.WriteBehindJournal;
 import javax.microedition.shell.MicroActivity;
 import javax.microedition.util.ContextHolder;
+import javax.microedition.util.Pacer;
+import javax.microedition.util.ThreadProfiler;
 import javax.microedition.util.param.SharedPreferencesContainer;
 
 import androidx.appcompat.app.AlertDialog;
@@ -77,17 +86,27 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 	protected CheckBox cxHwAcceleration;
 	protected CheckBox cxParallel;
 	protected CheckBox cxShowFps;
+	protected CheckBox cxLatencyTrace;
+	protected CheckBox cxSleepPacing;
+	protected CheckBox cxLayerIndex;
+	protected CheckBox cxWriteBehind;
 	protected CheckBox cxLimitFps;
 	protected EditText tfFpsLimit;
+	protected CheckBox cxProfiler;
+	protected EditText tfProfilerRate;
 
 	protected EditText tfFontSizeSmall;
 	protected EditText tfFontSizeMedium;
 	protected EditText tfFontSizeLarge;
 	protected CheckBox cxFontSizeInSP;
 	protected EditText tfSystemProperties;
+	protected EditText tfRmsQuota;
+	protected TextView tvRmsUsage;
 	protected CheckBox cxShowKeyboard;
 	protected CheckBox cxVKFeedback;
 	protected CheckBox cxTouchInput;
+	protected CheckBox cxTouchBatching;
+	protected CheckBox cxMultiTouch;
 
 	protected Spinner spVKType;
 	protected SeekBar sbVKAlpha;
@@ -166,17 +185,27 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 		cxHwAcceleration = findViewById(R.id.cxHwAcceleration);
 		cxParallel = findViewById(R.id.cxParallel);
 		cxShowFps = findViewById(R.id.cxShowFps);
+		cxLatencyTrace = findViewById(R.id.cxLatencyTrace);
+		cxSleepPacing = findViewById(R.id.cxSleepPacing);
+		cxLayerIndex = findViewById(R.id.cxLayerIndex);
+		cxWriteBehind = findViewById(R.id.cxWriteBehind);
 		cxLimitFps = findViewById(R.id.cxLimitFps);
 		tfFpsLimit = findViewById(R.id.tfFpsLimit);
+		cxProfiler = findViewById(R.id.cxProfiler);
+		tfProfilerRate = findViewById(R.id.tfProfilerRate);
 
 		tfFontSizeSmall = findViewById(R.id.tfFontSizeSmall);
 		tfFontSizeMedium = findViewById(R.id.tfFontSizeMedium);
 		tfFontSizeLarge = findViewById(R.id.tfFontSizeLarge);
 		cxFontSizeInSP = findViewById(R.id.cxFontSizeInSP);
 		tfSystemProperties = findViewById(R.id.tfSystemProperties);
+		tfRmsQuota = findViewById(R.id.tfRmsQuota);
+		tvRmsUsage = findViewById(R.id.tvRmsUsage);
 		cxShowKeyboard = findViewById(R.id.cxIsShowKeyboard);
 		cxVKFeedback = findViewById(R.id.cxVKFeedback);
 		cxTouchInput = findViewById(R.id.cxTouchInput);
+		cxTouchBatching = findViewById(R.id.cxTouchBatching);
+		cxMultiTouch = findViewById(R.id.cxMultiTouch);
 
 		spVKType = findViewById(R.id.spVKType);
 		sbVKAlpha = findViewById(R.id.sbVKAlpha);
@@ -386,6 +415,10 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 		cxParallel.setChecked(params.getBoolean("ParallelRedrawScreen", false));
 		cxHwAcceleration.setChecked(params.getBoolean("HwAcceleration", false));
 		cxShowFps.setChecked(params.getBoolean("ShowFps", false));
+		cxLatencyTrace.setChecked(params.getBoolean("LatencyTrace", false));
+		cxSleepPacing.setChecked(params.getBoolean("SleepPacing", false));
+		cxLayerIndex.setChecked(params.getBoolean("LayerIndex", false));
+		cxWriteBehind.setChecked(params.getBoolean("WriteBehind", false));
 		cxLimitFps.setChecked(params.getBoolean("LimitFps", false));
 
 		tfFontSizeSmall.setText(Integer.toString(params.getInt("FontSizeSmall", 18)));
@@ -393,10 +426,22 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 		tfFontSizeLarge.setText(Integer.toString(params.getInt("FontSizeLarge", 26)));
 		cxFontSizeInSP.setChecked(params.getBoolean("FontApplyDimensions", false));
 		tfSystemProperties.setText(params.getString("SystemProperties", ""));
+		tfRmsQuota.setText(Integer.toString(params.getInt("RmsQuota", 0)));
+		if (dataDir != null) {
+			tvRmsUsage.setText(getString(R.string.PREF_RMS_USAGE,
+					Formatter.formatFileSize(this, LogRecordStoreManager.getUsedSize(dataDir)),
+					Formatter.formatFileSize(this, dataDir.getUsableSpace())));
+		} else {
+			tvRmsUsage.setVisibility(View.GONE);
+		}
 		cxShowKeyboard.setChecked(params.getBoolean(("ShowKeyboard"), true));
 		cxVKFeedback.setChecked(params.getBoolean(("VirtualKeyboardFeedback"), false));
 		cxTouchInput.setChecked(params.getBoolean(("TouchInput"), true));
+		cxTouchBatching.setChecked(params.getBoolean("TouchBatching", false));
+		cxMultiTouch.setChecked(params.getBoolean("MultiTouch", false));
 		tfFpsLimit.setText(Integer.toString(params.getInt("FpsLimit", 0)));
+		cxProfiler.setChecked(params.getBoolean("Profiler", false));
+		tfProfilerRate.setText(Integer.toString(params.getInt("ProfilerRate", 50)));
 
 		spVKType.setSelection(params.getInt("VirtualKeyboardType", 1));
 		sbVKAlpha.setProgress(params.getInt("VirtualKeyboardAlpha", 64));
@@ -434,8 +479,14 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 			params.putBoolean("HwAcceleration", cxHwAcceleration.isChecked());
 			params.putBoolean("ParallelRedrawScreen", cxParallel.isChecked());
 			params.putBoolean("ShowFps", cxShowFps.isChecked());
+			params.putBoolean("LatencyTrace", cxLatencyTrace.isChecked());
+			params.putBoolean("SleepPacing", cxSleepPacing.isChecked());
+			params.putBoolean("LayerIndex", cxLayerIndex.isChecked());
+			params.putBoolean("WriteBehind", cxWriteBehind.isChecked());
 			params.putBoolean("LimitFps", cxLimitFps.isChecked());
 			params.putInt("FpsLimit", Integer.parseInt(tfFpsLimit.getText().toString()));
+			params.putBoolean("Profiler", cxProfiler.isChecked());
+			params.putInt("ProfilerRate", Integer.parseInt(tfProfilerRate.getText().toString()));
 
 			params.putInt("FontSizeSmall",
 					Integer.parseInt(tfFontSizeSmall.getText().toString()));
@@ -445,9 +496,12 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 					Integer.parseInt(tfFontSizeLarge.getText().toString()));
 			params.putBoolean("FontApplyDimensions", cxFontSizeInSP.isChecked());
 			params.putString("SystemProperties", tfSystemProperties.getText().toString());
+			params.putInt("RmsQuota", Integer.parseInt(tfRmsQuota.getText().toString()));
 			params.putBoolean("ShowKeyboard", cxShowKeyboard.isChecked());
 			params.putBoolean("VirtualKeyboardFeedback", cxVKFeedback.isChecked());
 			params.putBoolean("TouchInput", cxTouchInput.isChecked());
+			params.putBoolean("TouchBatching", cxTouchBatching.isChecked());
+			params.putBoolean("MultiTouch", cxMultiTouch.isChecked());
 
 			params.putInt("VirtualKeyboardType", spVKType.getSelectedItemPosition());
 			params.putInt("VirtualKeyboardAlpha", sbVKAlpha.getProgress());
@@ -486,11 +540,20 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 			boolean screenFilter = cxFilter.isChecked();
 			boolean immediateMode = cxImmediate.isChecked();
 			boolean touchInput = cxTouchInput.isChecked();
+			boolean touchBatching = cxTouchBatching.isChecked();
+			boolean multiTouch = cxMultiTouch.isChecked();
 			boolean hwAcceleration = cxHwAcceleration.isChecked();
 			boolean parallel = cxParallel.isChecked();
 			boolean showFps = cxShowFps.isChecked();
+			boolean latencyTrace = cxLatencyTrace.isChecked();
+			boolean sleepPacing = cxSleepPacing.isChecked();
+			boolean layerIndex = cxLayerIndex.isChecked();
+			boolean writeBehind = cxWriteBehind.isChecked();
+			int rmsQuota = Integer.parseInt(tfRmsQuota.getText().toString());
 			boolean limitFps = cxLimitFps.isChecked();
 			int fpsLimit = Integer.parseInt(tfFpsLimit.getText().toString());
+			boolean profiler = cxProfiler.isChecked();
+			int profilerRate = Integer.parseInt(tfProfilerRate.getText().toString());
 
 			Font.setSize(Font.SIZE_SMALL, fontSizeSmall);
 			Font.setSize(Font.SIZE_MEDIUM, fontSizeMedium);
@@ -514,7 +577,15 @@ public class ConfigActivity extends BaseActivity implements View.OnClickListener
 			Canvas.setBackgroundColor(screenBackgroundColor);
 			Canvas.setKeyMapping(intArray);
 			Canvas.setHasTouchInput(touchInput);
+			TouchCoalescer.setBatched(touchBatching);
+			Canvas.setMultiTouch(multiTouch);
 			Canvas.setShowFps(showFps);
+			LatencyTracer.setEnabled(latencyTrace);
+			Pacer.setEnabled(sleepPacing);
+			LayerManager.setSpatialIndexEnabled(layerIndex);
+			WriteBehindJournal.setEnabled(writeBehind);
+			LogRecordStoreManager.setQuota(rmsQuota * 1024L);
+			ThreadProfiler.setEnabled(profiler, profilerRate);
 			Canvas.setLimitFps(limitFps, fpsLimit);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -30,6 +30,11 @@ import com.deadlinegamedev.chaoscampus.R;
 
 public class FilteredFilePickerActivity extends AbstractFilePickerActivity<File> {
 
+	/**
+	 * File extensions to show, like ".rms", instead of the MIDlets
+	 */
+	public static final String EXTRA_EXTENSIONS = "com.deadlinegamedev.chaoscampus.EXTRA_EXTENSIONS";
+
 	private FilteredFilePickerFragment currentFragment;
 
 	@Override
@@ -37,6 +42,10 @@ public class FilteredFilePickerActivity extends AbstractFilePickerActivity<File>
 														   boolean allowCreateDir, boolean allowExistingFile, boolean singleClick) {
 		currentFragment = new FilteredFilePickerFragment();
 		currentFragment.setArgs(startPath, mode, allowMultiple, allowCreateDir, allowExistingFile, singleClick);
+		String[] extensions = getIntent().getStringArrayExtra(EXTRA_EXTENSIONS);
+		if (extensions != null) {
+			currentFragment.setExtensions(extensions);
+		}
 		return currentFragment;
 	}
 
@@ -34,9 +34,18 @@ import com.deadlinegamedev.chaoscampus.R;
 
 public class FilteredFilePickerFragment extends FilePickerFragment {
 
+	static final String KEY_EXTENSIONS = "KEY_EXTENSIONS";
+
 	private static String lastPath = Environment.getExternalStorageDirectory().getPath();
 	private static final List<String> extList = Arrays.asList(".jad", ".jar");
 
+	/**
+	 * Show files with these extensions instead of the MIDlets
+	 */
+	void setExtensions(String[] extensions) {
+		getArguments().putStringArray(KEY_EXTENSIONS, extensions);
+	}
+
 	@NonNull
 	@Override
 	public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -72,7 +81,9 @@ public class FilteredFilePickerFragment extends FilePickerFragment {
 	protected boolean isItemVisible(final File file) {
 		if (!isDir(file) && (mode == MODE_FILE || mode == MODE_FILE_AND_DIR)) {
 			String ext = getExtension(file);
-			return ext != null && extList.contains(ext.toLowerCase());
+			String[] extensions = getArguments().getStringArray(KEY_EXTENSIONS);
+			List<String> list = extensions == null ? extList : Arrays.asList(extensions);
+			return ext != null && list.contains(ext.toLowerCase());
 		}
 		return isDir(file);
 	}
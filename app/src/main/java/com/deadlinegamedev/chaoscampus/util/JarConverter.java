@@ -31,7 +31,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.microedition.util.MethodCounters;
 
 import io.reactivex.Single;
 import com.deadlinegamedev.chaoscampus.config.Config;
@@ -55,9 +59,10 @@ public class JarConverter {
 		tmpDir = new File(dataDirPath, TEMP_FOLDER_NAME);
 	}
 
-	private File patchJar(File inputJar, String encoding) throws IOException {
+	private File patchJar(File inputJar, String encoding, List<String> methods, boolean timing)
+			throws IOException {
 		File patchedJar = new File(tmpDir, inputJar.getName() + ".jar");
-		AndroidProducer.processJar(inputJar, patchedJar, encoding);
+		AndroidProducer.processJar(inputJar, patchedJar, encoding, methods, timing);
 		return patchedJar;
 	}
 
@@ -113,6 +118,13 @@ public class JarConverter {
 	}
 
 	public Single<String> convert(final String path, final String encoding) {
+		return convert(path, encoding, MethodCounters.MODE_OFF);
+	}
+
+	/**
+	 * @param methodCounters one of the MethodCounters.MODE_* constants
+	 */
+	public Single<String> convert(final String path, final String encoding, final String methodCounters) {
 		return Single.create(emitter -> {
 			boolean jadInstall = false;
 			String pathToJad = null;
@@ -151,8 +163,10 @@ public class JarConverter {
 			}
 			// Patch and unzip
 			File patchedJar;
+			List<String> methods = MethodCounters.MODE_OFF.equals(methodCounters) ? null : new ArrayList<>();
+			boolean timing = MethodCounters.MODE_TIME.equals(methodCounters);
 			try {
-				patchedJar = patchJar(inputJar, encoding);
+				patchedJar = patchJar(inputJar, encoding, methods, timing);
 			} catch (Exception e) {
 				deleteTemp();
 				throw new ConverterException("Can't patch", e);
@@ -209,6 +223,15 @@ public class JarConverter {
 				throw new ConverterException("Invalid manifest");
 			}
 			FileUtils.copyFileUsingChannel(inputJar, new File(appConverted, Config.MIDLET_RES_FILE));
+			if (methods != null) {
+				try {
+					MethodCounters.writeTable(new File(appConverted, Config.MIDLET_METHODS_FILE), methods, timing);
+				} catch (IOException e) {
+					deleteTemp();
+					FileUtils.deleteDirectory(appConverted);
+					throw new ConverterException("Can't write method table", e);
+				}
+			}
 			deleteTemp();
 			emitter.onSuccess(appDirPath);
 		});
@@ -37,19 +37,27 @@ import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.microedition.lcdui.event.CanvasEvent;
 import javax.microedition.lcdui.event.Event;
 import javax.microedition.lcdui.event.EventFilter;
 import javax.microedition.lcdui.event.EventQueue;
+import javax.microedition.lcdui.event.LatencyTracer;
+import javax.microedition.lcdui.event.TouchCoalescer;
 import javax.microedition.lcdui.overlay.FpsCounter;
+import javax.microedition.lcdui.overlay.LatencyCounter;
 import javax.microedition.lcdui.overlay.Overlay;
 import javax.microedition.lcdui.overlay.OverlayView;
 import javax.microedition.lcdui.pointer.FixedKeyboard;
 import javax.microedition.util.ContextHolder;
+import javax.microedition.util.Pacer;
 
 import androidx.annotation.NonNull;
 import androidx.collection.SparseArrayCompat;
 import com.deadlinegamedev.chaoscampus.R;
+import com.deadlinegamedev.chaoscampus.config.Config;
 
 public abstract class Canvas extends Displayable {
 	public static final int KEY_POUND = 35;
@@ -230,21 +238,34 @@ public abstract class Canvas extends Displayable {
 			return true;
 		}
 
+		private boolean acceptsPointer(int id) {
+			return touchInput && (id == 0 || multiTouch && id < TouchCoalescer.MAX_POINTERS);
+		}
+
+		private boolean isGamePointer(int id) {
+			return id < TouchCoalescer.MAX_POINTERS && (gamePointers & (1 << id)) != 0;
+		}
+
 		@Override
 		@SuppressLint("ClickableViewAccessibility")
 		public boolean onTouchEvent(MotionEvent event) {
 			switch (event.getActionMasked()) {
 				case MotionEvent.ACTION_DOWN:
+					gamePointers = 0;
 					if (overlay != null) {
 						overlay.show();
 					}
 				case MotionEvent.ACTION_POINTER_DOWN:
 					int index = event.getActionIndex();
 					int id = event.getPointerId(index);
-					if ((overlay == null || !overlay.pointerPressed(id, event.getX(index), event.getY(index)))
-							&& touchInput && id == 0) {
+					float x = event.getX(index);
+					float y = event.getY(index);
+					if ((overlay == null || !overlay.pointerPressed(id, x, y)) && acceptsPointer(id)) {
+						// the game owns this pointer until it is released, wherever it goes
+						gamePointers |= 1 << id;
+						touchCoalescer.reset(id);
 						postEvent(CanvasEvent.getInstance(Canvas.this, CanvasEvent.POINTER_PRESSED, id,
-								convertPointerX(event.getX()), convertPointerY(event.getY())));
+								convertPointerX(x), convertPointerY(y), event.getEventTime()));
 					}
 					break;
 				case MotionEvent.ACTION_MOVE:
@@ -253,21 +274,28 @@ public abstract class Canvas extends Displayable {
 					for (int h = 0; h < historySize; h++) {
 						for (int p = 0; p < pointerCount; p++) {
 							id = event.getPointerId(p);
-							if ((overlay == null || !overlay.pointerDragged(id, event.getHistoricalX(p, h), event.getHistoricalY(p, h)))
-									&& touchInput && id == 0) {
-								postEvent(CanvasEvent.getInstance(Canvas.this, CanvasEvent.POINTER_DRAGGED, id,
-										convertPointerX(event.getHistoricalX(p, h)), convertPointerY(event.getHistoricalY(p, h))));
+							x = event.getHistoricalX(p, h);
+							y = event.getHistoricalY(p, h);
+							if (isGamePointer(id)) {
+								touchCoalescer.dragged(id, convertPointerX(x), convertPointerY(y),
+										event.getHistoricalEventTime(h));
+							} else if (overlay != null) {
+								overlay.pointerDragged(id, x, y);
 							}
 						}
 					}
 					for (int p = 0; p < pointerCount; p++) {
 						id = event.getPointerId(p);
-						if ((overlay == null || !overlay.pointerDragged(id, event.getX(p), event.getY(p)))
-								&& touchInput && id == 0) {
-							postEvent(CanvasEvent.getInstance(Canvas.this, CanvasEvent.POINTER_DRAGGED, id,
-									convertPointerX(event.getX(p)), convertPointerY(event.getY(p))));
+						x = event.getX(p);
+						y = event.getY(p);
+						if (isGamePointer(id)) {
+							touchCoalescer.dragged(id, convertPointerX(x), convertPointerY(y),
+									event.getEventTime());
+						} else if (overlay != null) {
+							overlay.pointerDragged(id, x, y);
 						}
 					}
+					touchCoalescer.flush();
 					break;
 				case MotionEvent.ACTION_UP:
 					if (overlay != null) {
@@ -276,10 +304,16 @@ public abstract class Canvas extends Displayable {
 				case MotionEvent.ACTION_POINTER_UP:
 					index = event.getActionIndex();
 					id = event.getPointerId(index);
-					if ((overlay == null || !overlay.pointerReleased(id, event.getX(index), event.getY(index)))
-							&& touchInput && id == 0) {
+					x = event.getX(index);
+					y = event.getY(index);
+					if (overlay != null) {
+						overlay.pointerReleased(id, x, y);
+					}
+					if (isGamePointer(id)) {
+						gamePointers &= ~(1 << id);
+						touchCoalescer.reset(id);
 						postEvent(CanvasEvent.getInstance(Canvas.this, CanvasEvent.POINTER_RELEASED, id,
-								convertPointerX(event.getX()), convertPointerY(event.getY())));
+								convertPointerX(x), convertPointerY(y), event.getEventTime()));
 					}
 					break;
 				default:
@@ -313,6 +347,10 @@ public abstract class Canvas extends Displayable {
 				fpsCounter = new FpsCounter(overlayView);
 				overlayView.addLayer(fpsCounter);
 			}
+			if (LatencyTracer.isEnabled()) {
+				latencyCounter = new LatencyCounter(overlayView);
+				overlayView.addLayer(latencyCounter);
+			}
 			overlayView.setVisibility(true);
 		}
 
@@ -326,17 +364,30 @@ public abstract class Canvas extends Displayable {
 					overlayView.removeLayer(fpsCounter);
 					fpsCounter = null;
 				}
+				if (latencyCounter != null) {
+					latencyCounter.stop();
+					overlayView.removeLayer(latencyCounter);
+					latencyCounter = null;
+				}
 			}
 			overlayView.setVisibility(false);
+			if (LatencyTracer.isEnabled()) {
+				LatencyTracer.writeReport(new File(Config.EMULATOR_DIR, "latency.txt"));
+			}
+			if (TouchCoalescer.getLatency().getCount() > 0) {
+				Log.d(TAG, TouchCoalescer.getLatency().toString());
+			}
 		}
 
 		@Override
 		protected void onDraw(android.graphics.Canvas canvas) {
 			if (!hwaOldEnabled) return; // Fix for Android Pie
+			long postStart = System.nanoTime();
 			Graphics g = mGraphics;
 			g.setSurfaceCanvas(canvas);
 			g.clear(backgroundColor);
 			g.drawImage(offscreenCopy, onX, onY, onWidth, onHeight, filter, 255);
+			LatencyTracer.framePosted(postStart);
 			if (fpsCounter != null) {
 				fpsCounter.increment();
 			}
@@ -353,6 +404,7 @@ public abstract class Canvas extends Displayable {
 				if (surface == null || !surface.isValid()) {
 					return;
 				}
+				LatencyTracer.paintStarted();
 				Graphics g = this.mGraphics;
 				g.setCanvas(offscreen.getCanvas(), offscreen.getBitmap());
 				g.reset();
@@ -362,6 +414,7 @@ public abstract class Canvas extends Displayable {
 					t.printStackTrace();
 				}
 				offscreen.copyPixels(offscreenCopy);
+				LatencyTracer.paintFinished();
 				if (!parallelRedraw) {
 					repaintScreen();
 				} else if (!uiHandler.hasMessages(0)) {
@@ -374,16 +427,16 @@ public abstract class Canvas extends Displayable {
 		public void recycle() {
 		}
 
-		private int enqueued = 0;
+		private AtomicInteger enqueued = new AtomicInteger();
 
 		@Override
 		public void enterQueue() {
-			enqueued++;
+			enqueued.incrementAndGet();
 		}
 
 		@Override
 		public void leaveQueue() {
-			enqueued--;
+			enqueued.decrementAndGet();
 		}
 
 		/**
@@ -394,7 +447,7 @@ public abstract class Canvas extends Displayable {
 		 */
 		@Override
 		public boolean placeableAfter(Event event) {
-			return enqueued < 2;
+			return enqueued.get() < 2;
 		}
 
 		@Override
@@ -429,6 +482,18 @@ public abstract class Canvas extends Displayable {
 	private static boolean hwaOldEnabled;
 	private static boolean parallelRedraw;
 	private static boolean showFps;
+	private static boolean multiTouch;
+
+	/**
+	 * Values of the com.nokia.pointer.number property, kept to avoid allocation per event
+	 */
+	private static final String[] POINTER_NUMBERS = new String[TouchCoalescer.MAX_POINTERS];
+
+	static {
+		for (int i = 0; i < POINTER_NUMBERS.length; i++) {
+			POINTER_NUMBERS[i] = Integer.toString(i);
+		}
+	}
 	private static int backgroundColor;
 	private static int scaleRatio;
 	private static int fpsLimit;
@@ -436,11 +501,18 @@ public abstract class Canvas extends Displayable {
 	private Image offscreen;
 	private Image offscreenCopy;
 	private int onX, onY, onWidth, onHeight;
-	private long lastFrameTime = System.currentTimeMillis();
+	private long nextFrameTime = System.nanoTime();
 
 	private Handler uiHandler;
 	private Overlay overlay;
 	private FpsCounter fpsCounter;
+	private LatencyCounter latencyCounter;
+	private final TouchCoalescer touchCoalescer = new TouchCoalescer(this);
+
+	/**
+	 * Bit mask of the pointers whose press was delivered to the midlet, only used by the UI thread
+	 */
+	private int gamePointers;
 
 	public Canvas() {
 		if (parallelRedraw) {
@@ -477,6 +549,24 @@ public abstract class Canvas extends Displayable {
 		Canvas.touchInput = touchInput;
 	}
 
+	/**
+	 * Deliver all pointers to the midlet, not only the first one.
+	 * <p>
+	 * Pointers other than the first one are reported through the ordinary pointer callbacks,
+	 * the midlet can tell them apart by the com.nokia.pointer.number system property
+	 * as in the Nokia multipoint touch API.
+	 */
+	public static void setMultiTouch(boolean multiTouch) {
+		Canvas.multiTouch = multiTouch;
+		if (multiTouch) {
+			System.setProperty("com.nokia.mid.ui.multipointtouch.version", "1.0");
+			System.setProperty("com.nokia.pointer.number", POINTER_NUMBERS[0]);
+		} else {
+			System.clearProperty("com.nokia.mid.ui.multipointtouch.version");
+			System.clearProperty("com.nokia.pointer.number");
+		}
+	}
+
 	public static void setHardwareAcceleration(boolean hardwareAcceleration, boolean parallel) {
 		Canvas.hwaEnabled = hardwareAcceleration;
 		Canvas.hwaOldEnabled = hardwareAcceleration && Build.VERSION.SDK_INT < Build.VERSION_CODES.M;
@@ -704,7 +794,10 @@ public abstract class Canvas extends Displayable {
 	public void flushBuffer(Image image) {
 		limitFps();
 		synchronized (paintsync) {
+			// the midlet has drawn the frame into its buffer already, only the copy is timed
+			LatencyTracer.paintStarted();
 			image.copyPixels(offscreenCopy);
+			LatencyTracer.paintFinished();
 			if (!parallelRedraw) {
 				repaintScreen();
 			} else if (!uiHandler.hasMessages(0)) {
@@ -715,13 +808,18 @@ public abstract class Canvas extends Displayable {
 
 	private void limitFps() {
 		if (fpsLimit == 0) return;
+		long frameTime = 1000000000L / fpsLimit;
+		long now = System.nanoTime();
 		try {
-			long millis = (1000 / fpsLimit) - (System.currentTimeMillis() - lastFrameTime);
-			if (millis > 0) Thread.sleep(millis);
+			if (nextFrameTime - now > 0) {
+				Pacer.sleepNanos(nextFrameTime - now);
+				now = System.nanoTime();
+			}
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
-		lastFrameTime = System.currentTimeMillis();
+		// keep the frames on a fixed grid, but do not try to catch up more than one frame
+		nextFrameTime = Math.max(nextFrameTime, now - frameTime) + frameTime;
 	}
 
 	@SuppressLint("NewApi")
@@ -736,6 +834,7 @@ public abstract class Canvas extends Displayable {
 			return true;
 		}
 		try {
+			long postStart = System.nanoTime();
 			android.graphics.Canvas canvas = hwaEnabled ?
 					surface.lockHardwareCanvas() : surface.lockCanvas(null);
 			if (canvas == null) {
@@ -746,6 +845,7 @@ public abstract class Canvas extends Displayable {
 			g.clear(backgroundColor);
 			g.drawImage(offscreenCopy, onX, onY, onWidth, onHeight, filter, 255);
 			surface.unlockCanvasAndPost(canvas);
+			LatencyTracer.framePosted(postStart);
 			if (fpsCounter != null) {
 				fpsCounter.increment();
 			}
@@ -762,48 +862,26 @@ public abstract class Canvas extends Displayable {
 	public final void serviceRepaints() {
 		EventQueue queue = getEventQueue();
 
-		/*
-		 * blocking order:
-		 *
-		 * 1 - queue.this
-		 * 2 - queue.queue
-		 *
-		 * accordingly, inside the EventQueue, the order must be the same,
-		 * otherwise mutual blocking of two threads is possible (everything will hang)
-		 */
-
-		synchronized (queue) {
+		if (queue.currentEvent() != paintEvent && queue.removeEvents(paintEvent)) {
 			/*
-			 * This synchronization actually stops the events processing
-			 * just before changing the value of currentEvent()
-			 *
-			 * Then there are only two options:
+			 * if now something else is being processed there (not repaint),
+			 * but the repaint was in the queue (and was removed from there),
+			 * then it needs to be synchronously called from here
 			 */
 
-			if (queue.currentEvent() == paintEvent) {
-				/*
-				 * if repaint() is being processed there now,
-				 * then you just need to wait for it to finish
-				 */
-
-				if (Thread.holdsLock(paintsync)) { // Avoid deadlock
-					return;
-				}
-
-				try {
-					queue.wait();
-				} catch (InterruptedException ie) {
-					ie.printStackTrace();
-				}
-			} else if (queue.removeEvents(paintEvent)) {
-				/*
-				 * if now something else is being processed there (not repaint),
-				 * but the repaint was in the queue (and was removed from there),
-				 * then it needs to be synchronously called from here
-				 */
+			paintEvent.run();
+		} else if (queue.currentEvent() == paintEvent) {
+			/*
+			 * if repaint() is being processed there now
+			 * (or was taken by the event thread while we tried to remove it),
+			 * then you just need to wait for it to finish
+			 */
 
-				paintEvent.run();
+			if (Thread.holdsLock(paintsync)) { // Avoid deadlock
+				return;
 			}
+
+			queue.waitFor(paintEvent);
 		}
 	}
 
@@ -823,23 +901,35 @@ public abstract class Canvas extends Displayable {
 	}
 
 	public void pointerPressed(int pointer, float x, float y) {
-		if (pointer == 0) {
+		if (selectPointer(pointer)) {
 			pointerPressed(Math.round(x), Math.round(y));
 		}
 	}
 
 	public void pointerDragged(int pointer, float x, float y) {
-		if (pointer == 0) {
+		if (selectPointer(pointer)) {
 			pointerDragged(Math.round(x), Math.round(y));
 		}
 	}
 
 	public void pointerReleased(int pointer, float x, float y) {
-		if (pointer == 0) {
+		if (selectPointer(pointer)) {
 			pointerReleased(Math.round(x), Math.round(y));
 		}
 	}
 
+	private static boolean selectPointer(int pointer) {
+		if (!multiTouch) {
+			return pointer == 0;
+		}
+		if (pointer < 0 || pointer >= POINTER_NUMBERS.length) {
+			return false;
+		}
+		// events are delivered by a single thread, so the property always matches the callback
+		System.setProperty("com.nokia.pointer.number", POINTER_NUMBERS[pointer]);
+		return true;
+	}
+
 	public void pointerPressed(int x, int y) {
 	}
 
@@ -19,17 +19,26 @@ package javax.microedition.lcdui;
 
 import android.content.Context;
 import android.os.Vibrator;
+import android.util.Log;
 
+import javax.microedition.lcdui.event.EventQueue;
 import javax.microedition.lcdui.event.RunnableEvent;
 import javax.microedition.midlet.MIDlet;
 import javax.microedition.midlet.MIDletStateChangeException;
+import javax.microedition.rms.impl.WriteBehindJournal;
 import javax.microedition.shell.MicroActivity;
 import javax.microedition.util.ContextHolder;
+import javax.microedition.util.MethodCounters;
+import javax.microedition.util.Pacer;
+import javax.microedition.util.ThreadProfiler;
+import javax.microedition.util.WheelTimer;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
 public class Display {
+	private static final String TAG = Display.class.getName();
+
 	public static final int LIST_ELEMENT = 1;
 	public static final int CHOICE_GROUP_ELEMENT = 2;
 	public static final int ALERT = 3;
@@ -104,14 +113,7 @@ public class Display {
 			AlertDialog alertDialog = alert.prepareDialog();
 			alertDialog.show();
 			if (alert.finiteTimeout()) {
-				(new Thread(() -> {
-					try {
-						Thread.sleep(alert.getTimeout());
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					alertDialog.dismiss();
-				}, "MIDletAlertThread")).start();
+				DisplayExecutor.schedule(alertDialog::dismiss, alert.getTimeout());
 			}
 		});
 	}
@@ -146,10 +148,24 @@ public class Display {
 		} catch (NullPointerException e) {
 			e.printStackTrace();
 		}
+		// the process may be killed any time from now on
+		WriteBehindJournal.flushAll();
+		ThreadProfiler.dump();
 	}
 
 	public void activityDestroyed() {
 		context.callDestroyApp(true);
+		WriteBehindJournal.flushAll();
+		Log.d(TAG, DisplayExecutor.getStatistics());
+		Log.d(TAG, WheelTimer.getStatistics());
+		Log.d(TAG, EventQueue.getPoolStatistics());
+		ThreadProfiler.dump();
+		if (Pacer.isEnabled()) {
+			Log.d(TAG, Pacer.getStatistics());
+		}
+		if (MethodCounters.isEnabled()) {
+			Log.d(TAG, MethodCounters.getReport(MethodCounters.HOT_METHODS_COUNT));
+		}
 	}
 
 	public Displayable getCurrent() {
@@ -160,7 +176,7 @@ public class Display {
 		if (current != null) {
 			current.postEvent(RunnableEvent.getInstance(r));
 		} else {
-			(new Thread(r, "MIDletDisplayThread")).start();
+			DisplayExecutor.callSerially(r);
 		}
 	}
 
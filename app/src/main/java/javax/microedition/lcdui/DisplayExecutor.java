@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background threads of {@link Display}.
+ * <p>
+ * Serial calls that arrive while there is no current displayable (and thus no event queue)
+ * run here one at a time, in the order of the calls, as MIDP requires for serial events.
+ * A call that never returns only holds up the calls after it: delayed tasks such as alert
+ * timeouts run on a second thread of the same pool. Idle threads exit after a while.
+ */
+final class DisplayExecutor {
+	private static final int THREADS = 2;
+	private static final long KEEP_ALIVE_SECONDS = 10;
+
+	private static final ScheduledThreadPoolExecutor executor;
+
+	private static final ConcurrentLinkedQueue<Runnable> serial = new ConcurrentLinkedQueue<>();
+	private static final AtomicBoolean serialRunning = new AtomicBoolean();
+	private static final Runnable serialDrain = DisplayExecutor::drain;
+
+	private static final AtomicInteger threadsCreated = new AtomicInteger();
+	private static final AtomicInteger serialSubmitted = new AtomicInteger();
+	private static final AtomicInteger serialCompleted = new AtomicInteger();
+	private static final AtomicInteger scheduled = new AtomicInteger();
+
+	static {
+		executor = new ScheduledThreadPoolExecutor(THREADS, r -> {
+			Thread thread = new Thread(r, "MIDletDisplayThread-" + threadsCreated.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		executor.setRemoveOnCancelPolicy(true);
+	}
+
+	private DisplayExecutor() {
+	}
+
+	/**
+	 * Run the task after all serial tasks submitted before it have completed.
+	 */
+	static void callSerially(Runnable task) {
+		serialSubmitted.incrementAndGet();
+		serial.offer(task);
+		if (serialRunning.compareAndSet(false, true)) {
+			executor.execute(serialDrain);
+		}
+	}
+
+	static ScheduledFuture<?> schedule(Runnable task, long delay) {
+		scheduled.incrementAndGet();
+		return executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static void drain() {
+		do {
+			Runnable task;
+			while ((task = serial.poll()) != null) {
+				try {
+					task.run();
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+				serialCompleted.incrementAndGet();
+			}
+			serialRunning.set(false);
+			// a task may have been added after the last poll but before the flag was cleared
+		} while (!serial.isEmpty() && serialRunning.compareAndSet(false, true));
+	}
+
+	static String getStatistics() {
+		return String.format(Locale.US,
+				"DisplayExecutor: threads created=%d, alive=%d, largest=%d; serial submitted=%d, completed=%d; scheduled=%d",
+				threadsCreated.get(), executor.getPoolSize(), executor.getLargestPoolSize(),
+				serialSubmitted.get(), serialCompleted.get(), scheduled.get());
+	}
+}
@@ -55,6 +55,7 @@ public class Graphics {
 
 	private Rect intRect = new Rect();
 	private RectF floatRect = new RectF();
+	private Matrix matrix = new Matrix();
 	private Path path = new Path();
 
 	private DashPathEffect dpeffect = new DashPathEffect(new float[]{5, 5}, 0);
@@ -408,28 +409,31 @@ public class Graphics {
 	public void drawRegion(Image image, int srcx, int srcy, int width, int height, int transform, int dstx, int dsty, int anchor) {
 		if (width == 0 || height == 0) return;
 
+		intRect.set(srcx, srcy, srcx + width, srcy + height);
+
 		if (transform != 0) {
-			Rect srcR = new Rect(srcx, srcy, srcx + width, srcy + height);
-			RectF dstR = new RectF(0, 0, width, height);
-			RectF deviceR = new RectF();
-			Matrix matrix = Sprite.transformMatrix(transform, width / 2, height / 2);
-			matrix.mapRect(deviceR, dstR);
+			Sprite.transformMatrix(matrix, transform, width / 2, height / 2);
+			floatRect.set(0, 0, width, height);
+			matrix.mapRect(floatRect);
+			float deviceLeft = floatRect.left;
+			float deviceTop = floatRect.top;
 
 			if ((anchor & Graphics.RIGHT) != 0) {
-				dstx -= deviceR.width();
+				dstx -= floatRect.width();
 			} else if ((anchor & Graphics.HCENTER) != 0) {
-				dstx -= deviceR.width() / 2;
+				dstx -= floatRect.width() / 2;
 			}
 			if ((anchor & Graphics.BOTTOM) != 0) {
-				dsty -= deviceR.height();
+				dsty -= floatRect.height();
 			} else if ((anchor & Graphics.VCENTER) != 0) {
-				dsty -= deviceR.height() / 2;
+				dsty -= floatRect.height() / 2;
 			}
 
 			canvas.save();
-			canvas.translate(-deviceR.left + dstx, -deviceR.top + dsty);
+			canvas.translate(-deviceLeft + dstx, -deviceTop + dsty);
 			canvas.concat(matrix);
-			canvas.drawBitmap(image.getBitmap(), srcR, dstR, null);
+			floatRect.set(0, 0, width, height);
+			canvas.drawBitmap(image.getBitmap(), intRect, floatRect, null);
 			canvas.restore();
 		} else {
 			if ((anchor & Graphics.RIGHT) != 0) {
@@ -443,9 +447,8 @@ public class Graphics {
 				dsty -= height / 2;
 			}
 
-			Rect srcR = new Rect(srcx, srcy, srcx + width, srcy + height);
-			RectF dstR = new RectF(dstx, dsty, dstx + width, dsty + height);
-			canvas.drawBitmap(image.getBitmap(), srcR, dstR, null);
+			floatRect.set(dstx, dsty, dstx + width, dsty + height);
+			canvas.drawBitmap(image.getBitmap(), intRect, floatRect, null);
 		}
 	}
 
@@ -16,13 +16,16 @@
  */
 package javax.microedition.lcdui.event;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.game.GameCanvas;
-import javax.microedition.util.ArrayStack;
+import javax.microedition.util.ObjectPool;
 
 public class CanvasEvent extends Event {
 
-	private static ArrayStack<CanvasEvent> recycled = new ArrayStack<>();
+	static final ObjectPool<CanvasEvent> recycled = new ObjectPool<>(64);
 
 	public static final int KEY_PRESSED = 0,
 			KEY_REPEATED = 1,
@@ -34,7 +37,13 @@ public class CanvasEvent extends Event {
 			HIDE_NOTIFY = 7,
 			SIZE_CHANGED = 8;
 
-	private static int[] enqueued = new int[9];
+	private static AtomicIntegerArray enqueued = new AtomicIntegerArray(9);
+
+	/**
+	 * Value of {@link #sample} once the event has been taken by the event thread.
+	 * Both halves are NaN, so it is never a valid position.
+	 */
+	private static final long CONSUMED = -1L;
 
 	private Canvas canvas;
 	private int eventType;
@@ -43,6 +52,25 @@ public class CanvasEvent extends Event {
 
 	private int pointer;
 	private float x, y;
+	private volatile long eventTime;
+
+	/**
+	 * Time stamp of {@link LatencyTracer}, 0 if the event is not traced
+	 */
+	private long inputTime;
+
+	/**
+	 * Position of a coalesced drag event, x and y packed as float bits.
+	 * Updated by the UI thread until the event thread takes it.
+	 */
+	private final AtomicLong sample = new AtomicLong(CONSUMED);
+
+	/**
+	 * Positions and times of a batched drag event
+	 */
+	private float[] batch;
+	private long[] batchTimes;
+	private int batchSize;
 
 	private int width;
 	private int height;
@@ -56,6 +84,7 @@ public class CanvasEvent extends Event {
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
+		instance.inputTime = 0;
 
 		return instance;
 	}
@@ -70,6 +99,7 @@ public class CanvasEvent extends Event {
 		instance.canvas = canvas;
 		instance.eventType = eventType;
 		instance.keyCode = keyCode;
+		instance.inputTime = LatencyTracer.inputReceived();
 
 		return instance;
 	}
@@ -86,7 +116,27 @@ public class CanvasEvent extends Event {
 		instance.pointer = pointer;
 		instance.x = x;
 		instance.y = y;
+		instance.eventTime = 0;
+		instance.inputTime = LatencyTracer.inputReceived();
+
+		return instance;
+	}
+
+	public static Event getInstance(Canvas canvas, int eventType, int pointer, float x, float y, long eventTime) {
+		CanvasEvent instance = (CanvasEvent) getInstance(canvas, eventType, pointer, x, y);
+		instance.eventTime = eventTime;
+		return instance;
+	}
 
+	static CanvasEvent getDragInstance(Canvas canvas, int pointer, float x, float y, long eventTime) {
+		CanvasEvent instance = (CanvasEvent) getInstance(canvas, POINTER_DRAGGED, pointer, x, y, eventTime);
+		instance.sample.set(pack(x, y));
+		return instance;
+	}
+
+	static CanvasEvent getBatchInstance(Canvas canvas, int pointer) {
+		CanvasEvent instance = (CanvasEvent) getInstance(canvas, POINTER_DRAGGED, pointer, 0, 0);
+		instance.batchSize = 0;
 		return instance;
 	}
 
@@ -101,12 +151,18 @@ public class CanvasEvent extends Event {
 		instance.eventType = eventType;
 		instance.width = width;
 		instance.height = height;
+		instance.inputTime = 0;
 
 		return instance;
 	}
 
 	@Override
 	public void process() {
+		long dequeueTime = 0;
+		if (inputTime != 0) {
+			dequeueTime = System.nanoTime();
+			LatencyTracer.inputDequeued(inputTime);
+		}
 		switch (eventType) {
 			case KEY_PRESSED:
 				if (canvas instanceof GameCanvas) {
@@ -133,14 +189,30 @@ public class CanvasEvent extends Event {
 				break;
 
 			case POINTER_PRESSED:
+				recordLatency();
 				canvas.pointerPressed(pointer, x, y);
 				break;
 
 			case POINTER_DRAGGED:
+				if (batchSize > 0) {
+					for (int i = 0; i < batchSize; i++) {
+						TouchCoalescer.recordLatency(batchTimes[i]);
+						canvas.pointerDragged(pointer, batch[i * 2], batch[i * 2 + 1]);
+					}
+					batchSize = 0;
+					break;
+				}
+				long packed = sample.getAndSet(CONSUMED);
+				if (packed != CONSUMED) {
+					x = Float.intBitsToFloat((int) (packed >>> 32));
+					y = Float.intBitsToFloat((int) packed);
+				}
+				recordLatency();
 				canvas.pointerDragged(pointer, x, y);
 				break;
 
 			case POINTER_RELEASED:
+				recordLatency();
 				canvas.pointerReleased(pointer, x, y);
 				break;
 
@@ -156,22 +228,77 @@ public class CanvasEvent extends Event {
 				canvas.sizeChanged(width, height);
 				break;
 		}
+		if (inputTime != 0) {
+			LatencyTracer.inputHandled(inputTime, dequeueTime);
+		}
+	}
+
+	/**
+	 * Replace the position of a queued drag event.
+	 *
+	 * @return false if the event has already been taken by the event thread
+	 */
+	boolean offerSample(Canvas canvas, int pointer, float x, float y, long eventTime) {
+		if (this.canvas != canvas || this.pointer != pointer || eventType != POINTER_DRAGGED) {
+			return false;
+		}
+		long packed = pack(x, y);
+		while (true) {
+			long current = sample.get();
+			if (current == CONSUMED) {
+				return false;
+			}
+			if (sample.compareAndSet(current, packed)) {
+				this.eventTime = eventTime;
+				return true;
+			}
+		}
+	}
+
+	void addSample(float x, float y, long eventTime) {
+		if (batch == null || batchSize == batchTimes.length) {
+			int capacity = batch == null ? 16 : batchTimes.length * 2;
+			float[] grownBatch = new float[capacity * 2];
+			long[] grownTimes = new long[capacity];
+			if (batch != null) {
+				System.arraycopy(batch, 0, grownBatch, 0, batchSize * 2);
+				System.arraycopy(batchTimes, 0, grownTimes, 0, batchSize);
+			}
+			batch = grownBatch;
+			batchTimes = grownTimes;
+		}
+		batch[batchSize * 2] = x;
+		batch[batchSize * 2 + 1] = y;
+		batchTimes[batchSize++] = eventTime;
+	}
+
+	private static long pack(float x, float y) {
+		return ((long) Float.floatToIntBits(x) << 32) | (Float.floatToIntBits(y) & 0xffffffffL);
+	}
+
+	private void recordLatency() {
+		if (eventTime != 0) {
+			TouchCoalescer.recordLatency(eventTime);
+		}
 	}
 
 	@Override
 	public void recycle() {
+		// a coalescer may still hold this event, make sure it does not write into it anymore
+		sample.set(CONSUMED);
+		batchSize = 0;
 		canvas = null;
 		recycled.push(this);
 	}
 
 	@Override
 	public void enterQueue() {
-		enqueued[eventType]++;
+		enqueued.incrementAndGet(eventType);
 	}
 
 	@Override
 	public void leaveQueue() {
-		enqueued[eventType]--;
+		enqueued.decrementAndGet(eventType);
 	}
 
 	@Override
@@ -179,8 +306,10 @@ public class CanvasEvent extends Event {
 		if (event instanceof CanvasEvent) {
 			switch (eventType) {
 				case KEY_REPEATED:
+					return enqueued.get(eventType) < 2;
 				case POINTER_DRAGGED:
-					return enqueued[eventType] < 2;
+					// drags are already merged by TouchCoalescer
+					return true;
 			}
 		}
 		return true;
@@ -22,10 +22,10 @@ import javax.microedition.lcdui.CommandListener;
 import javax.microedition.lcdui.Displayable;
 import javax.microedition.lcdui.Item;
 import javax.microedition.lcdui.ItemCommandListener;
-import javax.microedition.util.ArrayStack;
+import javax.microedition.util.ObjectPool;
 
 public class CommandActionEvent extends Event {
-	private static ArrayStack<CommandActionEvent> recycled = new ArrayStack<>();
+	static final ObjectPool<CommandActionEvent> recycled = new ObjectPool<>(64);
 
 	private CommandListener listener;
 	private ItemCommandListener itemlistener;
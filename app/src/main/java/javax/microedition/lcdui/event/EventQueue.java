@@ -17,36 +17,84 @@
 
 package javax.microedition.lcdui.event;
 
-import javax.microedition.util.LinkedEntry;
-import javax.microedition.util.LinkedList;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The event queue. A really complicated thing.
+ * <p>
+ * Events are kept in a bounded ring buffer shared by any number of producers
+ * and the single event thread. Producers claim a slot by advancing the tail with CAS
+ * and publish it through the slot sequence number, the event thread consumes slots
+ * in order and parks when there is nothing to do. No locks are taken on either side.
  */
 public class EventQueue implements Runnable {
-	protected LinkedList<Event> queue;
-	protected Event event;
+	private static final String TAG = EventQueue.class.getName();
 
-	protected boolean enabled;
-	protected Thread thread;
+	/**
+	 * Ring buffer size, must be a power of two
+	 */
+	private static final int CAPACITY = 4096;
+	private static final int MASK = CAPACITY - 1;
+
+	/**
+	 * How long a producer waits for room in a full ring before the event is dropped,
+	 * short enough not to freeze the UI thread
+	 */
+	private static final long FULL_WAIT_NANOS = 200 * 1000000L;
+
+	/**
+	 * Removed events leave an empty slot behind, the event thread skips it
+	 */
+	private final AtomicReferenceArray<Event> slots;
+
+	/**
+	 * Slot i may be claimed by the producer of position p when its sequence is p,
+	 * and holds a published event of position p when its sequence is p + 1
+	 */
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong tail;
+	private volatile long head;
+
+	protected volatile Event event;
+
+	protected volatile boolean enabled;
+	protected volatile Thread thread;
 
-	private final Object waiter;
 	private final Object interlock;
 
-	private boolean running;
-	private boolean continuerun;
+	private volatile boolean parked;
+	private volatile int waiters;
 
 	private static boolean immediate;
 
 	public EventQueue() {
-		queue = new LinkedList<>();
+		slots = new AtomicReferenceArray<>(CAPACITY);
+		sequences = new AtomicLongArray(CAPACITY);
+		for (int i = 0; i < CAPACITY; i++) {
+			sequences.set(i, i);
+		}
+		tail = new AtomicLong();
 
-		waiter = new Object();
 		interlock = new Object();
 
 		immediate = false;
 	}
 
+	/**
+	 * @return the hit, miss and drop counts of the event pools
+	 */
+	public static String getPoolStatistics() {
+		return "Event pools: canvas=" + CanvasEvent.recycled
+				+ ", runnable=" + RunnableEvent.recycled
+				+ ", command=" + CommandActionEvent.recycled;
+	}
+
 	/**
 	 * Enable immediate processing mode.
 	 * <p>
@@ -82,45 +130,80 @@ public class EventQueue implements Runnable {
 			return;            // and nothing to do here
 		}
 
-		boolean empty;
-
-		synchronized (queue)    // all operations with the queue must be synchronized (on itself)
-		{
-			empty = queue.isEmpty();
+		/*
+		 * Only the newest event in the queue is compared with the new one. If it is already
+		 * being processed, or there is no event left at all, the new event is added
+		 * regardless of event.placeableAfter() value.
+		 */
+		Event newest = peekNewest();
+		if (newest != null && !event.placeableAfter(newest)) {
+			event.recycle(); // leave the previous event, recycle the new one.
+			return;
+		}
 
-			if (empty || event.placeableAfter(queue.getLast())) {
-				/*
-				 * If the queue itself is empty, then this already implies that either
-				 * exactly one event remains and it is now being processed,
-				 * or there is not a single event left at all.
-				 *
-				 * In both cases, a new event should be added to the queue,
-				 * regardless of event.placeableAfter() value.
-				 */
+		event.enterQueue();
+		long deadline = 0;
+		while (!offer(event)) {
+			// the ring is full, which only happens when the event thread is stuck
+			if (Thread.currentThread() == thread) {
+				// waiting for ourselves would hang, so break the order instead
+				event.leaveQueue();
+				event.run();
+				return;
+			}
+			long now = System.nanoTime();
+			if (deadline == 0) {
+				deadline = now + FULL_WAIT_NANOS;
+			} else if (!enabled || now - deadline > 0) {
+				Log.w(TAG, "postEvent: queue is full, dropping " + event);
+				event.leaveQueue();
+				event.recycle();
+				return;
+			}
+			Thread.yield();
+		}
 
-				queue.addLast(event);
-				event.enterQueue();
-			} else {
-				// it is more correct, but additional checks are required
-				// queue.setLast(event).recycle(); // remove the previous event and add the new one.
-				event.recycle(); // more reliable // leave the previous event, recycle the new one.
+		if (parked) {
+			Thread consumer = thread;
+			if (consumer != null) {
+				LockSupport.unpark(consumer);
 			}
 		}
+	}
 
-		if (empty) {
-			/*
-			 * on the other hand, if the queue was non-empty,
-			 * there is at least one more iteration for the events,
-			 * and this is not necessary
-			 */
-
-			synchronized (waiter) {
-				if (running) {
-					continuerun = true;
-				} else {
-					waiter.notifyAll();
+	/**
+	 * @return the event at the tail of the ring if it is published and not taken yet, or null.
+	 * The sequence is checked again after reading the slot, so the event can't be one that was
+	 * processed and recycled in the meantime.
+	 */
+	private Event peekNewest() {
+		long position = tail.get() - 1;
+		if (position < head) {
+			return null;
+		}
+		int index = (int) position & MASK;
+		if (sequences.get(index) != position + 1) {
+			return null;
+		}
+		Event newest = slots.get(index);
+		return sequences.get(index) == position + 1 ? newest : null;
+	}
+
+	private boolean offer(Event event) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & MASK;
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.set(index, event);
+					sequences.set(index, position + 1);
+					return true;
 				}
+			} else if (sequence < position) {
+				return false;
 			}
+			// another producer has claimed this position, try the next one
 		}
 	}
 
@@ -131,35 +214,19 @@ public class EventQueue implements Runnable {
 	 * @return true, if something has been removed
 	 */
 	public boolean removeEvents(EventFilter filter) {
-		if (queue.isEmpty()) {
-			return false;
-		}
-
 		boolean removed = false;
 
-		synchronized (queue) {
-
-			LinkedEntry<Event> entry = queue.firstEntry();
-			LinkedEntry<Event> last = queue.lastEntry();
-			LinkedEntry<Event> next;
-
-			while (true) {
-
-				next = entry.nextEntry();
-
-				Event element = entry.getElement();
-				if (filter.accept(element)) {
-					element.leaveQueue();
-					element.recycle();
-					queue.recycleEntry(entry);
-					removed = true;
-				}
-
-				if (entry != last) {
-					entry = next;
-				} else {
-					break;
-				}
+		long end = tail.get();
+		for (long position = head; position < end; position++) {
+			int index = (int) position & MASK;
+			Event element = slots.get(index);
+
+			// the event thread takes events with getAndSet(), so only one of us wins
+			if (element != null && filter.accept(element)
+					&& slots.compareAndSet(index, element, null)) {
+				element.leaveQueue();
+				element.recycle();
+				removed = true;
 			}
 		}
 
@@ -172,16 +239,14 @@ public class EventQueue implements Runnable {
 	 * @return true, if the queue is empty
 	 */
 	public boolean isEmpty() {
-		return queue.isEmpty();
+		return head == tail.get();
 	}
 
 	/**
 	 * Clear the queue.
 	 */
 	public void clear() {
-		synchronized (queue) {
-			queue.clear();
-		}
+		removeEvents(event -> true);
 	}
 
 	/**
@@ -204,8 +269,9 @@ public class EventQueue implements Runnable {
 	public void stopProcessing() {
 		enabled = false;
 
-		synchronized (waiter) {
-			waiter.notifyAll();
+		Thread consumer = thread;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
 		}
 
 		synchronized (interlock) {
@@ -220,71 +286,75 @@ public class EventQueue implements Runnable {
 		return event;
 	}
 
+	/**
+	 * Block until the event thread has finished processing the specified event.
+	 * Returns immediately if it is not being processed.
+	 *
+	 * @param event the event to wait for
+	 */
+	public void waitFor(Event event) {
+		synchronized (this) {
+			waiters++;
+			try {
+				while (this.event == event) {
+					wait();
+				}
+			} catch (InterruptedException ie) {
+				ie.printStackTrace();
+			} finally {
+				waiters--;
+			}
+		}
+	}
+
 	/**
 	 * Here is the main event loop.
 	 */
 	@Override
 	public void run() {
 		synchronized (interlock) {
-			running = true;
-
 			while (enabled) {
-				/*
-				 * blocking order:
-				 *
-				 * 1 - this
-				 * 2 - queue
-				 *
-				 * accordingly, inside the Canvas.serviceRepaints(), the order must be the same,
-				 * otherwise mutual blocking of two threads is possible (everything will hang)
-				 */
-
-				synchronized (this)        // needed for Canvas.serviceRepaints()
-				{
-					synchronized (queue)    // needed for postEvent()
-					{
-						event = queue.removeFirst();    // get the first item and immediately remove from the queue
+				long position = head;
+				int index = (int) position & MASK;
+
+				if (sequences.get(index) != position + 1) {
+					// nothing published yet, sleep until a producer wakes us up
+					parked = true;
+					if (sequences.get(index) != position + 1 && enabled) {
+						LockSupport.park(this);
 					}
+					parked = false;
+					continue;
 				}
 
-				if (event != null) {
+				/*
+				 * The event becomes current before it is taken from the slot,
+				 * so that whoever fails to remove it in removeEvents()
+				 * already sees it in currentEvent()
+				 */
+				event = slots.get(index);
+				Event taken = slots.getAndSet(index, null);
+				sequences.set(index, position + CAPACITY);
+				head = position + 1;
+
+				if (taken != null) {
 					try {
-						event.process();
+						taken.process();
 					} catch (Throwable ex) {
 						ex.printStackTrace();
 					}
 
-					synchronized (queue) {
-
-						event.leaveQueue();
-						event.recycle();
-					}
+					taken.leaveQueue();
+					taken.recycle();
+				}
 
+				event = null;
+				if (waiters > 0) {
 					synchronized (this) {
-						synchronized (queue) {
-							event = null;
-						}
-
 						this.notifyAll();
 					}
-				} else {
-					synchronized (waiter) {
-						if (continuerun) {
-							continuerun = false;
-						} else {
-							running = false;
-
-							try {
-								waiter.wait();
-							} catch (InterruptedException ie) {
-								ie.printStackTrace();
-							}
-
-							running = true;
-						}
-					}
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+}
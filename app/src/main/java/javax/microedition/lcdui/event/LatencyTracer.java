@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.event;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.microedition.util.LatencyHistogram;
+
+/**
+ * Input-to-photon latency tracer.
+ * <p>
+ * Input events are stamped when they are received from Android. When such an event has been
+ * handled by the midlet, it waits for the next frame: the frame that starts painting after that
+ * is the first one which can show the result, and the latency of the input ends when this frame
+ * has been posted to the surface.
+ */
+public class LatencyTracer {
+	private static final String TAG = LatencyTracer.class.getName();
+
+	private static final int MAX_PENDING = 64;
+
+	/**
+	 * Checked before taking the lock, so that the paint path costs nothing while tracing is off
+	 */
+	private static volatile boolean enabled;
+
+	private static final LatencyHistogram queued = new LatencyHistogram("Input to dequeue");
+	private static final LatencyHistogram handled = new LatencyHistogram("Input handler");
+	private static final LatencyHistogram paint = new LatencyHistogram("Paint");
+	private static final LatencyHistogram post = new LatencyHistogram("Surface post");
+	private static final LatencyHistogram total = new LatencyHistogram("Input to photon");
+
+	/**
+	 * Input times of the handled events not yet picked up by a frame
+	 */
+	private static final long[] waiting = new long[MAX_PENDING];
+	private static int waitingCount;
+
+	/**
+	 * Input times of the events shown by the frame being drawn
+	 */
+	private static final long[] painting = new long[MAX_PENDING];
+	private static int paintingCount;
+
+	private static long paintStart;
+
+	/**
+	 * Enable tracing. Histograms are reset every time tracing is enabled.
+	 */
+	public static void setEnabled(boolean value) {
+		if (value && !enabled) {
+			reset();
+		}
+		enabled = value;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the time stamp for a new input event, or 0 if tracing is disabled
+	 */
+	public static long inputReceived() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Called by the event thread when an input event has been taken from the queue.
+	 */
+	static void inputDequeued(long inputTime) {
+		if (inputTime != 0) {
+			queued.record(System.nanoTime() - inputTime);
+		}
+	}
+
+	/**
+	 * Called by the event thread when the midlet has handled an input event.
+	 */
+	static void inputHandled(long inputTime, long dequeueTime) {
+		if (inputTime == 0) {
+			return;
+		}
+		synchronized (LatencyTracer.class) {
+			handled.record(System.nanoTime() - dequeueTime);
+			if (waitingCount < MAX_PENDING) {
+				waiting[waitingCount++] = inputTime;
+			}
+		}
+	}
+
+	public static void paintStarted() {
+		if (!enabled) {
+			return;
+		}
+		synchronized (LatencyTracer.class) {
+			paintStart = System.nanoTime();
+			// a frame that has not been posted yet keeps its inputs, they are shown by this one
+			int count = Math.min(waitingCount, MAX_PENDING - paintingCount);
+			System.arraycopy(waiting, 0, painting, paintingCount, count);
+			paintingCount += count;
+			waitingCount = 0;
+		}
+	}
+
+	public static void paintFinished() {
+		if (!enabled) {
+			return;
+		}
+		synchronized (LatencyTracer.class) {
+			if (paintStart == 0) {
+				return;
+			}
+			paint.record(System.nanoTime() - paintStart);
+			paintStart = 0;
+		}
+	}
+
+	/**
+	 * Called after {@code unlockCanvasAndPost()}.
+	 *
+	 * @param postStart the time when the surface was locked
+	 */
+	public static void framePosted(long postStart) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (LatencyTracer.class) {
+			long now = System.nanoTime();
+			post.record(now - postStart);
+			for (int i = 0; i < paintingCount; i++) {
+				total.record(now - painting[i]);
+			}
+			paintingCount = 0;
+		}
+	}
+
+	public static LatencyHistogram getInputToPhoton() {
+		return total;
+	}
+
+	public static synchronized void reset() {
+		queued.reset();
+		handled.reset();
+		paint.reset();
+		post.reset();
+		total.reset();
+		waitingCount = 0;
+		paintingCount = 0;
+		paintStart = 0;
+	}
+
+	/**
+	 * Write all histograms to the file, replacing its contents.
+	 * <p>
+	 * The histograms are dumped on the calling thread, the file is written in the background:
+	 * this is called from a surface callback on the UI thread.
+	 */
+	public static void writeReport(File file) {
+		if (total.getCount() == 0 && queued.getCount() == 0) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		queued.dump(sb);
+		handled.dump(sb);
+		paint.dump(sb);
+		post.dump(sb);
+		total.dump(sb);
+		String report = sb.toString();
+		Log.d(TAG, total.toString());
+		new Thread(() -> {
+			try (Writer writer = new FileWriter(file)) {
+				writer.write(report);
+			} catch (IOException e) {
+				Log.w(TAG, "writeReport: " + e);
+			}
+		}, "LatencyReport").start();
+	}
+}
@@ -17,10 +17,10 @@
 
 package javax.microedition.lcdui.event;
 
-import javax.microedition.util.ArrayStack;
+import javax.microedition.util.ObjectPool;
 
 public class RunnableEvent extends Event {
-	private static ArrayStack<RunnableEvent> recycled = new ArrayStack<>();
+	static final ObjectPool<RunnableEvent> recycled = new ObjectPool<>(64);
 
 	private Runnable runnable;
 
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.event;
+
+import android.os.SystemClock;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.util.LatencyHistogram;
+
+/**
+ * Merges pointer drag samples before they reach the event queue.
+ * <p>
+ * By default every pointer has at most one drag event in the queue. New samples overwrite
+ * the position held by that event until the event thread takes it, so the MIDlet always gets
+ * the newest position and the queue is not flooded by high-rate touch panels.
+ * <p>
+ * In batched mode no sample is dropped: all samples of a pointer from one MotionEvent
+ * are delivered by a single event.
+ * <p>
+ * All methods except {@link #recordLatency(long)} must be called from the UI thread.
+ */
+public class TouchCoalescer {
+	public static final int MAX_POINTERS = 10;
+
+	private static final LatencyHistogram latency = new LatencyHistogram("Touch latency");
+
+	private static boolean batched;
+
+	private final Canvas canvas;
+	private final CanvasEvent[] pending = new CanvasEvent[MAX_POINTERS];
+	private final CanvasEvent[] batches = new CanvasEvent[MAX_POINTERS];
+
+	public TouchCoalescer(Canvas canvas) {
+		this.canvas = canvas;
+	}
+
+	/**
+	 * Enable batched delivery of drag samples.
+	 *
+	 * @param value true to deliver every sample instead of the newest one only
+	 */
+	public static void setBatched(boolean value) {
+		batched = value;
+	}
+
+	public static LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Record the time from the input event to its delivery to the MIDlet.
+	 *
+	 * @param eventTime event time in the {@link SystemClock#uptimeMillis()} time base
+	 */
+	static void recordLatency(long eventTime) {
+		latency.record((SystemClock.uptimeMillis() - eventTime) * 1000000);
+	}
+
+	/**
+	 * Add a drag sample. Samples are posted in batched mode by {@link #flush()}.
+	 */
+	public void dragged(int pointer, float x, float y, long eventTime) {
+		if (pointer < 0 || pointer >= MAX_POINTERS) {
+			canvas.postEvent(CanvasEvent.getInstance(canvas, CanvasEvent.POINTER_DRAGGED,
+					pointer, x, y, eventTime));
+			return;
+		}
+		if (batched) {
+			CanvasEvent event = batches[pointer];
+			if (event == null) {
+				event = CanvasEvent.getBatchInstance(canvas, pointer);
+				batches[pointer] = event;
+			}
+			event.addSample(x, y, eventTime);
+			return;
+		}
+		CanvasEvent event = pending[pointer];
+		if (event != null && event.offerSample(canvas, pointer, x, y, eventTime)) {
+			return;
+		}
+		event = CanvasEvent.getDragInstance(canvas, pointer, x, y, eventTime);
+		pending[pointer] = event;
+		canvas.postEvent(event);
+	}
+
+	/**
+	 * Post the samples collected since the last call.
+	 */
+	public void flush() {
+		for (int i = 0; i < MAX_POINTERS; i++) {
+			CanvasEvent event = batches[i];
+			if (event != null) {
+				batches[i] = null;
+				canvas.postEvent(event);
+			}
+		}
+	}
+
+	/**
+	 * Must be called before a press or release of the pointer is posted,
+	 * so that drag samples of the next gesture are not merged into an event queued before it.
+	 */
+	public void reset(int pointer) {
+		if (pointer >= 0 && pointer < MAX_POINTERS) {
+			pending[pointer] = null;
+		}
+		flush();
+	}
+}
@@ -30,6 +30,23 @@ public abstract class Layer {
 
 	boolean visible = true;
 
+	/**
+	 * Spatial index this layer is kept in, of the first indexed LayerManager it was added to
+	 */
+	volatile LayerGrid grid;
+
+	int gridLeft;
+
+	int gridTop;
+
+	int gridRight;
+
+	int gridBottom;
+
+	boolean gridOversized;
+
+	int gridStamp;
+
 	Layer(int width, int height) {
 		setWidthImpl(width);
 		setHeightImpl(height);
@@ -38,11 +55,13 @@ public abstract class Layer {
 	public void setPosition(int x, int y) {
 		this.x = x;
 		this.y = y;
+		boundsChanged();
 	}
 
 	public void move(int dx, int dy) {
 		x += dx;
 		y += dy;
+		boundsChanged();
 	}
 
 	public final int getX() {
@@ -76,6 +95,7 @@ public abstract class Layer {
 			throw new IllegalArgumentException();
 		}
 		this.width = width;
+		boundsChanged();
 	}
 
 	void setHeightImpl(int height) {
@@ -83,5 +103,15 @@ public abstract class Layer {
 			throw new IllegalArgumentException();
 		}
 		this.height = height;
+		boundsChanged();
+	}
+
+	/**
+	 * Must be called whenever the position or the size of the layer changes.
+	 */
+	void boundsChanged() {
+		if (grid != null) {
+			grid.update(this);
+		}
 	}
 }
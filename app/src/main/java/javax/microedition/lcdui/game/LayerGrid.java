@@ -0,0 +1,418 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Uniform grid over the layers of a {@link LayerManager}.
+ * <p>
+ * Every layer is registered in the cells its bounds overlap and is moved between cells
+ * by {@link Layer#boundsChanged()}. Layers covering more than {@link #MAX_CELLS} cells
+ * (typically tiled backgrounds) are kept in a separate list and checked individually.
+ * Cells are dropped when their last layer leaves them, so the grid follows a scrolling world.
+ * <p>
+ * A layer is indexed by one grid only, the first LayerManager with an index it was added to.
+ * The other indexed managers holding it keep it in a list of shared layers, which are always
+ * painted and checked individually, without touching the marks of the owning grid.
+ * <p>
+ * Layers are moved by the MIDlet thread while the screen is painted, so every access goes
+ * through the lock of the owning LayerManager.
+ */
+final class LayerGrid {
+	private static final int MAX_CELLS = 64;
+
+	private static final AtomicReferenceFieldUpdater<Layer, LayerGrid> OWNER =
+			AtomicReferenceFieldUpdater.newUpdater(Layer.class, LayerGrid.class, "grid");
+
+	private final Object lock;
+
+	private final int shift;
+
+	private long[] keys = new long[64];
+	private Cell[] cells = new Cell[64];
+	private int used;
+
+	private Layer[] oversized = new Layer[4];
+	private int oversizedCount;
+
+	private Layer[] shared = new Layer[4];
+	private int sharedCount;
+
+	private int stamp;
+
+	// bounds computed by computeBounds()
+	private int boundsLeft, boundsTop, boundsRight, boundsBottom;
+
+	private static final class Cell {
+		Layer[] layers = new Layer[4];
+		int count;
+
+		void add(Layer layer) {
+			if (count == layers.length) {
+				Layer[] grown = new Layer[count * 2];
+				System.arraycopy(layers, 0, grown, 0, count);
+				layers = grown;
+			}
+			layers[count++] = layer;
+		}
+
+		void remove(Layer layer) {
+			for (int i = count; --i >= 0; ) {
+				if (layers[i] == layer) {
+					layers[i] = layers[--count];
+					layers[count] = null;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param cellSize cell size in pixels, rounded up to a power of two
+	 */
+	LayerGrid(Object lock, int cellSize) {
+		this.lock = lock;
+		int s = 0;
+		while ((1 << s) < cellSize && s < 30) {
+			s++;
+		}
+		shift = s;
+	}
+
+	void add(Layer layer) {
+		synchronized (lock) {
+			if (layer.grid == this || indexOfShared(layer) >= 0) {
+				return;
+			}
+			if (!OWNER.compareAndSet(layer, null, this)) {
+				// indexed by another LayerManager
+				if (sharedCount == shared.length) {
+					Layer[] grown = new Layer[sharedCount * 2];
+					System.arraycopy(shared, 0, grown, 0, sharedCount);
+					shared = grown;
+				}
+				shared[sharedCount++] = layer;
+				return;
+			}
+			layer.gridOversized = false;
+			layer.gridRight = -1;
+			layer.gridLeft = 0;
+			updateLocked(layer);
+		}
+	}
+
+	void remove(Layer layer) {
+		synchronized (lock) {
+			int index = indexOfShared(layer);
+			if (index >= 0) {
+				shared[index] = shared[--sharedCount];
+				shared[sharedCount] = null;
+				return;
+			}
+			if (layer.grid != this) {
+				return;
+			}
+			unlink(layer);
+			layer.grid = null;
+		}
+	}
+
+	private int indexOfShared(Layer layer) {
+		for (int i = sharedCount; --i >= 0; ) {
+			if (shared[i] == layer) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	void update(Layer layer) {
+		synchronized (lock) {
+			// the layer may have left the grid since the caller looked
+			if (layer.grid == this) {
+				updateLocked(layer);
+			}
+		}
+	}
+
+	private void updateLocked(Layer layer) {
+		computeBounds(layer);
+		int left = boundsLeft >> shift;
+		int top = boundsTop >> shift;
+		int right = (Math.max(boundsRight, boundsLeft + 1) - 1) >> shift;
+		int bottom = (Math.max(boundsBottom, boundsTop + 1) - 1) >> shift;
+
+		if (left == layer.gridLeft && top == layer.gridTop
+				&& right == layer.gridRight && bottom == layer.gridBottom) {
+			return;
+		}
+		unlink(layer);
+		layer.gridLeft = left;
+		layer.gridTop = top;
+		layer.gridRight = right;
+		layer.gridBottom = bottom;
+
+		if ((long) (right - left + 1) * (bottom - top + 1) > MAX_CELLS) {
+			if (oversizedCount == oversized.length) {
+				Layer[] grown = new Layer[oversizedCount * 2];
+				System.arraycopy(oversized, 0, grown, 0, oversizedCount);
+				oversized = grown;
+			}
+			oversized[oversizedCount++] = layer;
+			layer.gridOversized = true;
+			return;
+		}
+		for (int cy = top; cy <= bottom; cy++) {
+			for (int cx = left; cx <= right; cx++) {
+				getCell(cx, cy, true).add(layer);
+			}
+		}
+	}
+
+	/**
+	 * Marks every layer indexed here that may overlap the given area with a new stamp.
+	 * Layers of other grids are not marked, see {@link #isMarked(Layer, int)}.
+	 *
+	 * @return the stamp
+	 */
+	int mark(int x1, int y1, int x2, int y2) {
+		synchronized (lock) {
+			collect(null, x1, y1, x2, y2, null);
+			return stamp;
+		}
+	}
+
+	/**
+	 * @return true if the layer may overlap the area of the mark, or is shared with another grid
+	 */
+	boolean isMarked(Layer layer, int stamp) {
+		return layer.grid != this || layer.gridStamp == stamp;
+	}
+
+	/**
+	 * Stores the layers that may overlap the given one into the array.
+	 *
+	 * @return the number of layers found, which may exceed the length of the array
+	 */
+	int query(Layer layer, Layer[] out) {
+		synchronized (lock) {
+			computeBounds(layer);
+			return collect(layer, boundsLeft, boundsTop, boundsRight, boundsBottom, out);
+		}
+	}
+
+	private void computeBounds(Layer layer) {
+		boundsLeft = layer.x;
+		boundsTop = layer.y;
+		boundsRight = layer.x + layer.width;
+		boundsBottom = layer.y + layer.height;
+		if (layer instanceof Sprite) {
+			// the collision rectangle may stick out of the frame
+			Sprite sprite = (Sprite) layer;
+			boundsLeft = Math.min(boundsLeft, layer.x + sprite.t_collisionRectX);
+			boundsTop = Math.min(boundsTop, layer.y + sprite.t_collisionRectY);
+			boundsRight = Math.max(boundsRight,
+					layer.x + sprite.t_collisionRectX + sprite.t_collisionRectWidth);
+			boundsBottom = Math.max(boundsBottom,
+					layer.y + sprite.t_collisionRectY + sprite.t_collisionRectHeight);
+		}
+	}
+
+	private int collect(Layer exclude, int x1, int y1, int x2, int y2, Layer[] out) {
+		int found = 0;
+		int current = ++stamp;
+		if (exclude != null && exclude.grid == this) {
+			exclude.gridStamp = current;
+		}
+		if (out != null) {
+			// always candidates, each is in the list once and their stamps belong to the owning grid
+			for (int i = 0; i < sharedCount; i++) {
+				Layer layer = shared[i];
+				if (layer != exclude) {
+					if (found < out.length) {
+						out[found] = layer;
+					}
+					found++;
+				}
+			}
+		}
+		for (int i = 0; i < oversizedCount; i++) {
+			Layer layer = oversized[i];
+			if (layer.gridStamp != current && layer.x < x2 && layer.y < y2
+					&& layer.x + layer.width > x1 && layer.y + layer.height > y1) {
+				layer.gridStamp = current;
+				if (out != null && found < out.length) {
+					out[found] = layer;
+				}
+				found++;
+			}
+		}
+
+		int left = x1 >> shift;
+		int top = y1 >> shift;
+		int right = (Math.max(x2, x1 + 1) - 1) >> shift;
+		int bottom = (Math.max(y2, y1 + 1) - 1) >> shift;
+		if ((long) (right - left + 1) * (bottom - top + 1) > used) {
+			// the area is larger than the populated part of the grid, walk the cells instead
+			for (int i = 0; i < keys.length; i++) {
+				Cell cell = cells[i];
+				if (cell == null) {
+					continue;
+				}
+				int cx = (int) (keys[i] >> 32);
+				int cy = (int) keys[i];
+				if (cx >= left && cx <= right && cy >= top && cy <= bottom) {
+					found = collect(cell, current, found, out);
+				}
+			}
+			return found;
+		}
+		for (int cy = top; cy <= bottom; cy++) {
+			for (int cx = left; cx <= right; cx++) {
+				Cell cell = getCell(cx, cy, false);
+				if (cell != null) {
+					found = collect(cell, current, found, out);
+				}
+			}
+		}
+		return found;
+	}
+
+	private static int collect(Cell cell, int current, int found, Layer[] out) {
+		for (int i = 0; i < cell.count; i++) {
+			Layer layer = cell.layers[i];
+			if (layer.gridStamp != current) {
+				layer.gridStamp = current;
+				if (out != null && found < out.length) {
+					out[found] = layer;
+				}
+				found++;
+			}
+		}
+		return found;
+	}
+
+	private void unlink(Layer layer) {
+		if (layer.gridOversized) {
+			for (int i = oversizedCount; --i >= 0; ) {
+				if (oversized[i] == layer) {
+					oversized[i] = oversized[--oversizedCount];
+					oversized[oversizedCount] = null;
+					break;
+				}
+			}
+			layer.gridOversized = false;
+		} else {
+			for (int cy = layer.gridTop; cy <= layer.gridBottom; cy++) {
+				for (int cx = layer.gridLeft; cx <= layer.gridRight; cx++) {
+					Cell cell = getCell(cx, cy, false);
+					if (cell != null) {
+						cell.remove(layer);
+						if (cell.count == 0) {
+							removeCell(cx, cy);
+						}
+					}
+				}
+			}
+		}
+		layer.gridRight = layer.gridLeft - 1;
+	}
+
+	private Cell getCell(int cx, int cy, boolean create) {
+		long key = ((long) cx << 32) | (cy & 0xffffffffL);
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while (cells[index] != null) {
+			if (keys[index] == key) {
+				return cells[index];
+			}
+			index = (index + 1) & mask;
+		}
+		if (!create) {
+			return null;
+		}
+		if (used * 2 >= keys.length) {
+			grow();
+			return getCell(cx, cy, true);
+		}
+		Cell cell = new Cell();
+		keys[index] = key;
+		cells[index] = cell;
+		used++;
+		return cell;
+	}
+
+	/**
+	 * Drops the cell, moving the following entries of its probe sequence back so that
+	 * lookups still find them
+	 */
+	private void removeCell(int cx, int cy) {
+		long key = ((long) cx << 32) | (cy & 0xffffffffL);
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while (keys[index] != key) {
+			if (cells[index] == null) {
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		if (cells[index] == null) {
+			return;
+		}
+		int next = index;
+		while (true) {
+			next = (next + 1) & mask;
+			if (cells[next] == null) {
+				break;
+			}
+			// move the entry back unless its home slot lies in (index, next]
+			int home = hash(keys[next]) & mask;
+			if (index <= next ? home <= index || home > next : home <= index && home > next) {
+				keys[index] = keys[next];
+				cells[index] = cells[next];
+				index = next;
+			}
+		}
+		keys[index] = 0;
+		cells[index] = null;
+		used--;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Cell[] oldCells = cells;
+		keys = new long[oldKeys.length * 2];
+		cells = new Cell[oldCells.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldCells[i] != null) {
+				int index = hash(oldKeys[i]) & mask;
+				while (cells[index] != null) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				cells[index] = oldCells[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
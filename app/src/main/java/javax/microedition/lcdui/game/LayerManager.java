@@ -16,15 +16,37 @@
 
 package javax.microedition.lcdui.game;
 
+import android.graphics.Rect;
+
 import javax.microedition.lcdui.Graphics;
 
 public class LayerManager {
+	private static final int DEFAULT_CELL_SIZE = 64;
+
+	private static boolean spatialIndexEnabled;
+
 	private int nlayers;
 	private Layer component[] = new Layer[4];
 	private int viewX, viewY, viewWidth, viewHeight;
+	private volatile LayerGrid grid;
+	private Rect clipRect = new Rect();
+	/**
+	 * The layers found in the visible area, painted after the index is released
+	 */
+	private Layer[] marked = new Layer[4];
 
 	public LayerManager() {
 		setViewWindow(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		if (spatialIndexEnabled) {
+			setSpatialIndex(DEFAULT_CELL_SIZE);
+		}
+	}
+
+	/**
+	 * Give the LayerManagers created from now on a spatial index
+	 */
+	public static void setSpatialIndexEnabled(boolean enabled) {
+		spatialIndexEnabled = enabled;
 	}
 
 	public void append(Layer l) {
@@ -71,11 +93,38 @@ public class LayerManager {
 		// set the clip to view window
 		g.clipRect(viewX, viewY, viewWidth, viewHeight);
 
-		// draw last to first
-		for (int i = nlayers; --i >= 0; ) {
-			Layer comp = component[i];
-			if (comp.visible) {
-				comp.paint(g);
+		LayerGrid grid = this.grid;
+		if (grid != null) {
+			// only paint the layers the spatial index finds in the visible area. The lock keeps
+			// moves and queries of the MIDlet thread from changing the marks while they are read,
+			// the painting itself does not hold it up.
+			int count = 0;
+			Layer[] layers;
+			synchronized (this) {
+				g.getCanvas().getClipBounds(clipRect);
+				int stamp = grid.mark(clipRect.left, clipRect.top, clipRect.right, clipRect.bottom);
+				if (marked.length < nlayers) {
+					marked = new Layer[nlayers];
+				}
+				layers = marked;
+				for (int i = nlayers; --i >= 0; ) {
+					Layer comp = component[i];
+					if (comp.visible && grid.isMarked(comp, stamp)) {
+						layers[count++] = comp;
+					}
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				layers[i].paint(g);
+				layers[i] = null;
+			}
+		} else {
+			// draw last to first
+			for (int i = nlayers; --i >= 0; ) {
+				Layer comp = component[i];
+				if (comp.visible) {
+					comp.paint(g);
+				}
 			}
 		}
 
@@ -94,6 +143,52 @@ public class LayerManager {
 		viewHeight = height;
 	}
 
+	/**
+	 * Enables or disables the spatial index of the layers.
+	 * <p>
+	 * With the index enabled, paint() skips layers outside the view window and
+	 * {@link #getCollisionCandidates(Layer, Layer[])} can be used instead of testing
+	 * every pair of layers. A layer in several indexed LayerManagers is indexed by the first
+	 * one only, the others always paint it and report it as a candidate.
+	 *
+	 * @param cellSize size of the grid cells in pixels, 0 to disable the index
+	 */
+	public synchronized void setSpatialIndex(int cellSize) {
+		if (cellSize < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (grid != null) {
+			for (int i = 0; i < nlayers; i++) {
+				grid.remove(component[i]);
+			}
+			grid = null;
+		}
+		if (cellSize > 0) {
+			grid = new LayerGrid(this, cellSize);
+			for (int i = 0; i < nlayers; i++) {
+				grid.add(component[i]);
+			}
+		}
+	}
+
+	/**
+	 * Finds the layers whose bounds may overlap the bounds or the collision rectangle
+	 * of the given layer. The candidates still have to be checked with collidesWith().
+	 * Requires the spatial index to be enabled.
+	 *
+	 * @param layer      the layer to find candidates for
+	 * @param candidates array receiving the candidates, in no particular order
+	 * @return the number of candidates; if it is greater than the length of the array,
+	 * only the first ones were stored
+	 */
+	public int getCollisionCandidates(Layer layer, Layer[] candidates) {
+		LayerGrid grid = this.grid;
+		if (grid == null) {
+			throw new IllegalStateException();
+		}
+		return grid.query(layer, candidates);
+	}
+
 	private void addImpl(Layer layer, int index) {
 		if (nlayers == component.length) {
 			Layer newcomponents[] = new Layer[nlayers + 4];
@@ -108,6 +203,10 @@ public class LayerManager {
 
 		component[index] = layer;
 		nlayers++;
+
+		if (grid != null) {
+			grid.add(layer);
+		}
 	}
 
 	private void removeImpl(Layer l) {
@@ -136,6 +235,9 @@ public class LayerManager {
 	}
 
 	private void remove(int index) {
+		if (grid != null) {
+			grid.remove(component[index]);
+		}
 		System.arraycopy(component, index + 1,
 				component, index,
 				nlayers - index - 1);
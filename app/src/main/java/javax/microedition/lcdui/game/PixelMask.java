@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * 1-bit opacity mask of an image region, as seen on screen after a Sprite transform.
+ * <p>
+ * Every row is packed into {@code stride} longs, bit {@code n} of word {@code k} being
+ * the pixel in column {@code 64 * k + n}. A pixel is set only if it is fully opaque,
+ * which is what MIDP pixel-level collision detection requires.
+ */
+final class PixelMask {
+	private static final int FULLY_OPAQUE_ALPHA = 0xff000000;
+
+	final int width;
+	final int height;
+	private final int stride;
+	private final long[] bits;
+	private int opaqueCount;
+
+	private PixelMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.stride = (width + 63) >>> 6;
+		this.bits = new long[stride * height];
+	}
+
+	/**
+	 * Builds the mask of the source region {@code (x, y, regionWidth, regionHeight)}
+	 * of the image transformed with one of the Sprite.TRANS_* constants.
+	 * The mask coordinates are painter coordinates relative to the transformed region.
+	 */
+	static PixelMask create(Image image, int x, int y, int regionWidth, int regionHeight, int transform) {
+		int[] argb = new int[regionWidth * regionHeight];
+		image.getRGB(argb, 0, regionWidth, x, y, regionWidth, regionHeight);
+
+		boolean inverted = (transform & Sprite.INVERTED_AXES) != 0;
+		boolean flipX = (transform & Sprite.X_FLIP) != 0;
+		boolean flipY = (transform & Sprite.Y_FLIP) != 0;
+		int width = inverted ? regionHeight : regionWidth;
+		int height = inverted ? regionWidth : regionHeight;
+
+		PixelMask mask = new PixelMask(width, height);
+		for (int row = 0; row < height; row++) {
+			int base = row * mask.stride;
+			for (int column = 0; column < width; column++) {
+				int sx, sy;
+				if (inverted) {
+					sx = flipX ? height - 1 - row : row;
+					sy = flipY ? width - 1 - column : column;
+				} else {
+					sx = flipX ? width - 1 - column : column;
+					sy = flipY ? height - 1 - row : row;
+				}
+				if ((argb[sy * regionWidth + sx] & FULLY_OPAQUE_ALPHA) == FULLY_OPAQUE_ALPHA) {
+					mask.bits[base + (column >>> 6)] |= 1L << (column & 63);
+					mask.opaqueCount++;
+				}
+			}
+		}
+		return mask;
+	}
+
+	boolean isTransparent() {
+		return opaqueCount == 0;
+	}
+
+	boolean isOpaque() {
+		return opaqueCount == width * height;
+	}
+
+	/**
+	 * Checks whether a set pixel of this mask starting at {@code (x, y)} overlaps a set pixel
+	 * of the other mask starting at {@code (otherX, otherY)} within a {@code width * height} area.
+	 */
+	boolean intersects(int x, int y, PixelMask other, int otherX, int otherY, int width, int height) {
+		for (int row = 0; row < height; row++) {
+			for (int column = 0; column < width; column += 64) {
+				long overlap = word(y + row, x + column) & other.word(otherY + row, otherX + column);
+				int remaining = width - column;
+				if (remaining < 64) {
+					overlap &= (1L << remaining) - 1;
+				}
+				if (overlap != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether any pixel is set within the given area.
+	 */
+	boolean intersects(int x, int y, int width, int height) {
+		if (opaqueCount == 0) {
+			return false;
+		}
+		for (int row = 0; row < height; row++) {
+			for (int column = 0; column < width; column += 64) {
+				long overlap = word(y + row, x + column);
+				int remaining = width - column;
+				if (remaining < 64) {
+					overlap &= (1L << remaining) - 1;
+				}
+				if (overlap != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns 64 pixels of the row starting at the given column.
+	 * Pixels past the right edge of the mask read as transparent.
+	 */
+	private long word(int row, int column) {
+		int index = row * stride + (column >>> 6);
+		int shift = column & 63;
+		long word = bits[index] >>> shift;
+		if (shift != 0 && (column >>> 6) + 1 < stride) {
+			word |= bits[index + 1] << (64 - shift);
+		}
+		return word;
+	}
+}
@@ -36,29 +36,19 @@ public class Sprite extends Layer {
 	 * If this bit is set, it denotes that the transform causes the
 	 * axes to be interchanged
 	 */
-	private static final int INVERTED_AXES = 0x4;
+	static final int INVERTED_AXES = 0x4;
 
 	/**
 	 * If this bit is set, it denotes that the transform causes the
 	 * x axis to be flipped.
 	 */
-	private static final int X_FLIP = 0x2;
+	static final int X_FLIP = 0x2;
 
 	/**
 	 * If this bit is set, it denotes that the transform causes the
 	 * y axis to be flipped.
 	 */
-	private static final int Y_FLIP = 0x1;
-
-	/**
-	 * Bit mask for channel value in ARGB pixel.
-	 */
-	private static final int ALPHA_BITMASK = 0xff000000;
-
-	/**
-	 * Alpha channel value for full opacity.
-	 */
-	private static final int FULLY_OPAQUE_ALPHA = 0xff000000;
+	static final int Y_FLIP = 0x1;
 
 	Image sourceImage;
 
@@ -100,6 +90,15 @@ public class Sprite extends Layer {
 
 	int t_collisionRectHeight;
 
+	/**
+	 * Opacity masks of the frames, indexed by frame * 8 + transform, built on first use
+	 */
+	private PixelMask[] collisionMasks;
+
+	private Image lastCollisionImage;
+
+	private PixelMask lastCollisionImageMask;
+
 
 	public Sprite(Image image) {
 		super(image.getWidth(), image.getHeight());
@@ -147,6 +146,8 @@ public class Sprite extends Layer {
 		}
 
 		this.sourceImage = Image.createImage(s.sourceImage);
+		// the copy has the same pixels, so the cached frame masks can be shared
+		this.collisionMasks = s.collisionMasks;
 
 		this.numberFrames = s.numberFrames;
 
@@ -206,6 +207,7 @@ public class Sprite extends Layer {
 		y = inp_y - getTransformedPtY(dRefX, dRefY,
 				t_currentTransformation);
 
+		boundsChanged();
 	}
 
 	public int getRefPixelX() {
@@ -358,6 +360,7 @@ public class Sprite extends Layer {
 
 			computeTransformedBounds(this.t_currentTransformation);
 
+			boundsChanged();
 		} else {
 			// just reinitialize the animation frames.
 			initializeFrames(img, frameWidth, frameHeight, maintainCurFrame);
@@ -474,37 +477,13 @@ public class Sprite extends Layer {
 				int intersectHeight = Math.abs(intersectBottom - intersectTop);
 
 				// have the coordinates in painter space,
-				// need coordinates of top left and width, height
-				// in source image of Sprite.
-
-				int thisImageXOffset = getImageTopLeftX(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int thisImageYOffset = getImageTopLeftY(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int otherImageXOffset = s.getImageTopLeftX(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int otherImageYOffset = s.getImageTopLeftY(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
+				// the masks are in painter space relative to the sprite
 
 				// check if opaque pixels intersect.
-
-				return doPixelCollision(thisImageXOffset, thisImageYOffset,
-						otherImageXOffset, otherImageYOffset,
-						this.sourceImage,
-						this.t_currentTransformation,
-						s.sourceImage,
-						s.t_currentTransformation,
+				return getCollisionMask().intersects(
+						intersectLeft - this.x, intersectTop - this.y,
+						s.getCollisionMask(),
+						intersectLeft - s.x, intersectTop - s.y,
 						intersectWidth, intersectHeight);
 
 			} else {
@@ -628,6 +607,11 @@ public class Sprite extends Layer {
 			endCol = (sx2 < tLx2) ? ((sx2 - 1 - tLx1) / tW) : tNumCols - 1;
 			endRow = (sy2 < tLy2) ? ((sy2 - 1 - tLy1) / tH) : tNumRows - 1;
 
+			PixelMask mask = getCollisionMask();
+			if (mask.isTransparent()) {
+				return false;
+			}
+
 			// current cell coordinates
 			int cellTop = startRow * tH + tLy1;
 			int cellBottom = cellTop + tH;
@@ -645,64 +629,44 @@ public class Sprite extends Layer {
 				for (int col = startCol; col <= endCol;
 					 col++, cellLeft += tW, cellRight += tW) {
 
-					tileIndex = t.getCell(col, row);
-
-					if (tileIndex != 0) {
-
-						// current cell/sprite intersection coordinates
-						// in painter coordinate system.
-						// find intersecting region,
-						int intersectLeft = (sx1 < cellLeft) ? cellLeft : sx1;
-						int intersectTop = (sy1 < cellTop) ? cellTop : sy1;
-
-						// used once, optimize.
-						int intersectRight = (sx2 < cellRight) ?
-								sx2 : cellRight;
-						int intersectBottom = (sy2 < cellBottom) ?
-								sy2 : cellBottom;
-
-						if (intersectLeft > intersectRight) {
-							int temp = intersectRight;
-							intersectRight = intersectLeft;
-							intersectLeft = temp;
-						}
-
-						if (intersectTop > intersectBottom) {
-							int temp = intersectBottom;
-							intersectBottom = intersectTop;
-							intersectTop = temp;
-						}
-
-						int intersectWidth = intersectRight - intersectLeft;
-						int intersectHeight = intersectBottom - intersectTop;
-
-						int image1XOffset = getImageTopLeftX(intersectLeft,
-								intersectTop,
-								intersectRight,
-								intersectBottom);
-
-						int image1YOffset = getImageTopLeftY(intersectLeft,
-								intersectTop,
-								intersectRight,
-								intersectBottom);
-
-						int image2XOffset = t.tileSetX[tileIndex] +
-								(intersectLeft - cellLeft);
-						int image2YOffset = t.tileSetY[tileIndex] +
-								(intersectTop - cellTop);
-
-						if (doPixelCollision(image1XOffset,
-								image1YOffset,
-								image2XOffset,
-								image2YOffset,
-								this.sourceImage,
-								this.t_currentTransformation,
-								t.sourceImage,
-								TRANS_NONE,
-								intersectWidth, intersectHeight)) {
-							// intersection found with this tile
-							return true;
-						}
+					tileIndex = t.getStaticTile(col, row);
+
+					if (tileIndex == 0) {
+						continue;
+					}
+
+					PixelMask tileMask = t.getTileMask(tileIndex);
+					if (tileMask.isTransparent()) {
+						continue;
+					}
+
+					// current cell/sprite intersection coordinates
+					// in painter coordinate system.
+					int intersectLeft = (sx1 < cellLeft) ? cellLeft : sx1;
+					int intersectTop = (sy1 < cellTop) ? cellTop : sy1;
+					int intersectRight = (sx2 < cellRight) ? sx2 : cellRight;
+					int intersectBottom = (sy2 < cellBottom) ? sy2 : cellBottom;
+
+					int intersectWidth = intersectRight - intersectLeft;
+					int intersectHeight = intersectBottom - intersectTop;
+					if (intersectWidth <= 0 || intersectHeight <= 0) {
+						continue;
+					}
+
+					boolean collides;
+					if (tileMask.isOpaque()) {
+						// any opaque sprite pixel over the cell is a hit
+						collides = mask.intersects(intersectLeft - this.x, intersectTop - this.y,
+								intersectWidth, intersectHeight);
+					} else {
+						collides = mask.intersects(intersectLeft - this.x, intersectTop - this.y,
+								tileMask,
+								intersectLeft - cellLeft, intersectTop - cellTop,
+								intersectWidth, intersectHeight);
+					}
+					if (collides) {
+						// intersection found with this tile
+						return true;
 					}
 				} // end of for col
 			}// end of for row
@@ -786,29 +750,13 @@ public class Sprite extends Layer {
 				int intersectHeight = Math.abs(intersectBottom - intersectTop);
 
 				// have the coordinates in painter space,
-				// need coordinates of top left and width, height
-				// in source image of Sprite.
-
-				int thisImageXOffset = getImageTopLeftX(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int thisImageYOffset = getImageTopLeftY(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int otherImageXOffset = intersectLeft - inp_x;
-				int otherImageYOffset = intersectTop - inp_y;
+				// the masks are in painter space relative to the sprite and the image
 
 				// check if opaque pixels intersect.
-				return doPixelCollision(thisImageXOffset, thisImageYOffset,
-						otherImageXOffset, otherImageYOffset,
-						this.sourceImage,
-						this.t_currentTransformation,
-						image,
-						Sprite.TRANS_NONE,
+				return getCollisionMask().intersects(
+						intersectLeft - this.x, intersectTop - this.y,
+						getImageMask(image),
+						intersectLeft - inp_x, intersectTop - inp_y,
 						intersectWidth, intersectHeight);
 
 			} else {
@@ -830,6 +778,7 @@ public class Sprite extends Layer {
 		int numVerticalFrames = imageH / fHeight;
 
 		sourceImage = image;
+		collisionMasks = null;
 
 		srcFrameWidth = fWidth;
 		srcFrameHeight = fHeight;
@@ -885,216 +834,39 @@ public class Sprite extends Layer {
 		}
 	}
 
-	private static boolean doPixelCollision(int image1XOffset,
-											int image1YOffset,
-											int image2XOffset,
-											int image2YOffset,
-											Image image1, int transform1,
-											Image image2, int transform2,
-											int width, int height) {
-
-		// starting point of comparison
-		int startY1;
-		// x and y increments
-		int xIncr1, yIncr1;
-
-		// .. for image 2
-		int startY2;
-		int xIncr2, yIncr2;
-
-		int numPixels = height * width;
-
-		int[] argbData1 = new int[numPixels];
-		int[] argbData2 = new int[numPixels];
-
-		if (0x0 != (transform1 & INVERTED_AXES)) {
-
-			if (0x0 != (transform1 & Y_FLIP)) {
-				xIncr1 = -(height); // - scanlength
-
-				startY1 = numPixels - height; // numPixels - scanlength
-			} else {
-				xIncr1 = height; // + scanlength
-
-				startY1 = 0;
-			}
-
-			if (0x0 != (transform1 & X_FLIP)) {
-				yIncr1 = -1;
-
-				startY1 += (height - 1);
-			} else {
-				yIncr1 = +1;
-			}
-
-			image1.getRGB(argbData1, 0, height, // scanlength = height
-					image1XOffset, image1YOffset, height, width);
-
-		} else {
-
-			if (0x0 != (transform1 & Y_FLIP)) {
-
-				startY1 = numPixels - width; // numPixels - scanlength
-
-				yIncr1 = -(width); // - scanlength
-			} else {
-				startY1 = 0;
-
-				yIncr1 = width; // + scanlength
-			}
-
-			if (0x0 != (transform1 & X_FLIP)) {
-				xIncr1 = -1;
-
-				startY1 += (width - 1);
-			} else {
-				xIncr1 = +1;
-			}
-
-			image1.getRGB(argbData1, 0, width, image1XOffset, image1YOffset, width, height);
-		}
-
-		if (0x0 != (transform2 & INVERTED_AXES)) {
-			// inverted axes
-
-			if (0x0 != (transform2 & Y_FLIP)) {
-				xIncr2 = -(height);
-
-				startY2 = numPixels - height;
-			} else {
-				xIncr2 = height;
-
-				startY2 = 0;
-			}
-
-			if (0x0 != (transform2 & X_FLIP)) {
-				yIncr2 = -1;
-
-				startY2 += height - 1;
-			} else {
-				yIncr2 = +1;
-			}
-
-			image2.getRGB(argbData2, 0, height,
-					image2XOffset, image2YOffset, height, width);
-
-		} else {
-
-			if (0x0 != (transform2 & Y_FLIP)) {
-				startY2 = numPixels - width;
-
-				yIncr2 = -(width);
-			} else {
-				startY2 = 0;
-
-				yIncr2 = +width;
+	/**
+	 * Returns the opacity mask of the current frame with the current transform applied.
+	 * Masks of immutable images are cached, since their pixels can never change.
+	 */
+	private PixelMask getCollisionMask() {
+		int frame = frameSequence[sequenceIndex];
+		if (!sourceImage.isMutable()) {
+			if (collisionMasks == null) {
+				collisionMasks = new PixelMask[numberFrames * 8];
 			}
-
-			if (0x0 != (transform2 & X_FLIP)) {
-				xIncr2 = -1;
-
-				startY2 += (width - 1);
-			} else {
-				xIncr2 = +1;
+			PixelMask mask = collisionMasks[frame * 8 + t_currentTransformation];
+			if (mask == null) {
+				mask = PixelMask.create(sourceImage, frameCoordsX[frame], frameCoordsY[frame],
+						srcFrameWidth, srcFrameHeight, t_currentTransformation);
+				collisionMasks[frame * 8 + t_currentTransformation] = mask;
 			}
-
-			image2.getRGB(argbData2, 0, width, image2XOffset, image2YOffset, width, height);
+			return mask;
 		}
-
-		int x1, x2;
-		int xLocalBegin1, xLocalBegin2;
-
-		// the loop counters
-		int numIterRows;
-		int numIterColumns;
-
-		for (numIterRows = 0, xLocalBegin1 = startY1, xLocalBegin2 = startY2;
-			 numIterRows < height;
-			 xLocalBegin1 += yIncr1, xLocalBegin2 += yIncr2, numIterRows++) {
-
-			for (numIterColumns = 0, x1 = xLocalBegin1, x2 = xLocalBegin2;
-				 numIterColumns < width;
-				 x1 += xIncr1, x2 += xIncr2, numIterColumns++) {
-
-				if (((argbData1[x1] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA) &&
-						((argbData2[x2] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA)) {
-
-					return true;
-				}
-
-			} // end for x
-
-		} // end for y
-
-		// worst case!  couldn't find a single colliding pixel!
-		return false;
+		return PixelMask.create(sourceImage, frameCoordsX[frame], frameCoordsY[frame],
+				srcFrameWidth, srcFrameHeight, t_currentTransformation);
 	}
 
-	private int getImageTopLeftX(int x1, int y1, int x2, int y2) {
-		int retX = 0;
-
-		switch (this.t_currentTransformation) {
-
-			case TRANS_NONE:
-			case TRANS_MIRROR_ROT180:
-				retX = x1 - this.x;
-				break;
-
-			case TRANS_MIRROR:
-			case TRANS_ROT180:
-				retX = (this.x + this.width) - x2;
-				break;
-
-			case TRANS_ROT90:
-			case TRANS_MIRROR_ROT270:
-				retX = y1 - this.y;
-				break;
-
-			case TRANS_ROT270:
-			case TRANS_MIRROR_ROT90:
-				retX = (this.y + this.height) - y2;
-				break;
-
-			default:
-				return retX;
+	private PixelMask getImageMask(Image image) {
+		if (image == lastCollisionImage) {
+			return lastCollisionImageMask;
 		}
-
-		retX += frameCoordsX[frameSequence[sequenceIndex]];
-
-		return retX;
-	}
-
-	private int getImageTopLeftY(int x1, int y1, int x2, int y2) {
-		int retY = 0;
-		switch (this.t_currentTransformation) {
-
-			case TRANS_NONE:
-			case TRANS_MIRROR:
-				retY = y1 - this.y;
-				break;
-
-			case TRANS_ROT180:
-			case TRANS_MIRROR_ROT180:
-				retY = (this.y + this.height) - y2;
-				break;
-
-			case TRANS_ROT270:
-			case TRANS_MIRROR_ROT270:
-				retY = x1 - this.x;
-				break;
-
-			case TRANS_ROT90:
-			case TRANS_MIRROR_ROT90:
-				retY = (this.x + this.width) - x2;
-				break;
-
-			default:
-				return retY;
+		PixelMask mask = PixelMask.create(image, 0, 0,
+				image.getWidth(), image.getHeight(), TRANS_NONE);
+		if (!image.isMutable()) {
+			lastCollisionImage = image;
+			lastCollisionImageMask = mask;
 		}
-
-		retY += frameCoordsY[frameSequence[sequenceIndex]];
-
-		return retY;
+		return mask;
 	}
 
 	private void setTransformImpl(int transform) {
@@ -1124,6 +896,8 @@ public class Sprite extends Layer {
 		// set the current transform to be the one requested
 		t_currentTransformation = transform;
 
+		boundsChanged();
+
 	}
 
 	private void computeTransformedBounds(int transform) {
@@ -1372,7 +1146,15 @@ public class Sprite extends Layer {
 	}
 
 	public static Matrix transformMatrix(int transform, float px, float py) {
-		Matrix matrix = new Matrix();
+		return transformMatrix(new Matrix(), transform, px, py);
+	}
+
+	/**
+	 * Same as {@link #transformMatrix(int, float, float)}, but fills a caller-owned matrix
+	 * so that per-frame drawing code does not allocate.
+	 */
+	public static Matrix transformMatrix(Matrix matrix, int transform, float px, float py) {
+		matrix.reset();
 
 		switch (transform) {
 			case Sprite.TRANS_ROT90:
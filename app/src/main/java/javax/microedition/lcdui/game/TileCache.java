@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ * Off-screen copy of the visible window of a {@link TiledLayer}.
+ * <p>
+ * Every cached cell remembers the static tile it was rendered with. On paint only the cells
+ * that scrolled into the window or whose tile changed since the last frame are redrawn,
+ * and the whole visible area is then put on screen with a single blit.
+ */
+class TileCache {
+	private static final int INVALID = -1;
+
+	private final TiledLayer layer;
+
+	private final Paint clearPaint = new Paint();
+	private final Paint copyPaint = new Paint();
+	private final Rect src = new Rect();
+	private final Rect dst = new Rect();
+
+	private Image image;
+	private Canvas canvas;
+	private Image spare;
+	private Canvas spareCanvas;
+
+	private int[] tiles;
+	private int[] spareTiles;
+
+	private int cellWidth;
+	private int cellHeight;
+	private int windowColumn;
+	private int windowRow;
+	private int windowColumns;
+	private int windowRows;
+
+	TileCache(TiledLayer layer) {
+		this.layer = layer;
+		clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+		copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
+	void invalidate() {
+		if (tiles != null) {
+			Arrays.fill(tiles, INVALID);
+		}
+	}
+
+	void paint(Graphics g, int startColumn, int startRow, int endColumn, int endRow,
+			   int maxColumns, int maxRows) {
+		int cw = layer.getCellWidth();
+		int ch = layer.getCellHeight();
+
+		if (image == null || cw != cellWidth || ch != cellHeight
+				|| maxColumns > windowColumns || maxRows > windowRows) {
+			allocate(maxColumns, maxRows, cw, ch);
+			windowColumn = clampColumn(startColumn);
+			windowRow = clampRow(startRow);
+		} else if (startColumn < windowColumn || endColumn > windowColumn + windowColumns
+				|| startRow < windowRow || endRow > windowRow + windowRows) {
+			int column = windowColumn;
+			if (startColumn < windowColumn) {
+				column = clampColumn(startColumn);
+			} else if (endColumn > windowColumn + windowColumns) {
+				column = clampColumn(endColumn - windowColumns);
+			}
+			int row = windowRow;
+			if (startRow < windowRow) {
+				row = clampRow(startRow);
+			} else if (endRow > windowRow + windowRows) {
+				row = clampRow(endRow - windowRows);
+			}
+			scroll(column, row);
+		}
+
+		Bitmap tileSet = layer.sourceImage.getBitmap();
+		for (int row = startRow; row < endRow; row++) {
+			int index = (row - windowRow) * windowColumns + (startColumn - windowColumn);
+			for (int column = startColumn; column < endColumn; column++, index++) {
+				int tile = layer.getStaticTile(column, row);
+				if (tiles[index] == tile) {
+					continue;
+				}
+				int x = (column - windowColumn) * cw;
+				int y = (row - windowRow) * ch;
+				dst.set(x, y, x + cw, y + ch);
+				canvas.drawRect(dst, clearPaint);
+				if (tile != 0) {
+					src.set(layer.tileSetX[tile], layer.tileSetY[tile],
+							layer.tileSetX[tile] + cw, layer.tileSetY[tile] + ch);
+					canvas.drawBitmap(tileSet, src, dst, null);
+				}
+				tiles[index] = tile;
+			}
+		}
+
+		g.drawRegion(image,
+				(startColumn - windowColumn) * cw, (startRow - windowRow) * ch,
+				(endColumn - startColumn) * cw, (endRow - startRow) * ch,
+				Sprite.TRANS_NONE,
+				layer.x + startColumn * cw, layer.y + startRow * ch,
+				Graphics.TOP | Graphics.LEFT);
+	}
+
+	private void allocate(int columns, int rows, int cw, int ch) {
+		Bitmap bitmap = Bitmap.createBitmap(columns * cw, rows * ch, Bitmap.Config.ARGB_8888);
+		image = new Image(bitmap);
+		canvas = new Canvas(bitmap);
+		bitmap = Bitmap.createBitmap(columns * cw, rows * ch, Bitmap.Config.ARGB_8888);
+		spare = new Image(bitmap);
+		spareCanvas = new Canvas(bitmap);
+		tiles = new int[columns * rows];
+		spareTiles = new int[columns * rows];
+		Arrays.fill(tiles, INVALID);
+		cellWidth = cw;
+		cellHeight = ch;
+		windowColumns = columns;
+		windowRows = rows;
+	}
+
+	private void scroll(int column, int row) {
+		Arrays.fill(spareTiles, INVALID);
+
+		// keep whatever part of the old window is still inside the new one
+		int fromColumn = Math.max(column, windowColumn);
+		int toColumn = Math.min(column + windowColumns, windowColumn + windowColumns);
+		int fromRow = Math.max(row, windowRow);
+		int toRow = Math.min(row + windowRows, windowRow + windowRows);
+		if (fromColumn < toColumn && fromRow < toRow) {
+			src.set((fromColumn - windowColumn) * cellWidth, (fromRow - windowRow) * cellHeight,
+					(toColumn - windowColumn) * cellWidth, (toRow - windowRow) * cellHeight);
+			dst.set((fromColumn - column) * cellWidth, (fromRow - row) * cellHeight,
+					(toColumn - column) * cellWidth, (toRow - row) * cellHeight);
+			spareCanvas.drawBitmap(image.getBitmap(), src, dst, copyPaint);
+			for (int r = fromRow; r < toRow; r++) {
+				System.arraycopy(tiles, (r - windowRow) * windowColumns + (fromColumn - windowColumn),
+						spareTiles, (r - row) * windowColumns + (fromColumn - column),
+						toColumn - fromColumn);
+			}
+		}
+
+		Image i = image;
+		image = spare;
+		spare = i;
+
+		Canvas c = canvas;
+		canvas = spareCanvas;
+		spareCanvas = c;
+
+		int[] t = tiles;
+		tiles = spareTiles;
+		spareTiles = t;
+
+		windowColumn = column;
+		windowRow = row;
+	}
+
+	private int clampColumn(int column) {
+		return Math.max(0, Math.min(column, layer.getColumns() - windowColumns));
+	}
+
+	private int clampRow(int row) {
+		return Math.max(0, Math.min(row, layer.getRows() - windowRows));
+	}
+}
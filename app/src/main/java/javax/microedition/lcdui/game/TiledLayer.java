@@ -16,6 +16,8 @@
 
 package javax.microedition.lcdui.game;
 
+import android.graphics.Rect;
+
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
@@ -33,6 +35,15 @@ public class TiledLayer extends Layer {
 	private int[] anim_to_static;
 	private int numOfAnimTiles;
 
+	private TileCache tileCache;
+
+	/**
+	 * Opacity masks of the static tiles for pixel-level collisions,
+	 * built on first use after the tile set is set
+	 */
+	private PixelMask[] tileMasks;
+	private Rect clipRect = new Rect();
+
 	public TiledLayer(int columns, int rows, Image image, int tileWidth,
 					  int tileHeight) {
 		super(columns < 1 || tileWidth < 1 ? -1 : columns * tileWidth,
@@ -206,39 +217,60 @@ public class TiledLayer extends Layer {
 		}
 
 		if (visible) {
+			// a single clip query instead of one per getClipX/Y/Width/Height
+			g.getCanvas().getClipBounds(clipRect);
+			int clipX = clipRect.left;
+			int clipY = clipRect.top;
+
 			int startColumn = 0;
 			int endColumn = this.columns;
 			int startRow = 0;
 			int endRow = this.rows;
 
 			// calculate the number of columns left of the clip
-			int number = (g.getClipX() - this.x) / cellWidth;
+			int number = (clipX - this.x) / cellWidth;
 			if (number > 0) {
 				startColumn = number;
 			}
 
 			// calculate the number of columns right of the clip
 			int endX = this.x + (this.columns * cellWidth);
-			int endClipX = g.getClipX() + g.getClipWidth();
+			int endClipX = clipRect.right;
 			number = (endX - endClipX) / cellWidth;
 			if (number > 0) {
 				endColumn -= number;
 			}
 
 			// calculate the number of rows above the clip
-			number = (g.getClipY() - this.y) / cellHeight;
+			number = (clipY - this.y) / cellHeight;
 			if (number > 0) {
 				startRow = number;
 			}
 
 			// calculate the number of rows below the clip
 			int endY = this.y + (this.rows * cellHeight);
-			int endClipY = g.getClipY() + g.getClipHeight();
+			int endClipY = clipRect.bottom;
 			number = (endY - endClipY) / cellHeight;
 			if (number > 0) {
 				endRow -= number;
 			}
 
+			if (startColumn >= endColumn || startRow >= endRow) {
+				return;
+			}
+
+			// mutable tile sets may be drawn into behind our back, so they are not cached
+			if (!sourceImage.isMutable()) {
+				if (tileCache == null) {
+					tileCache = new TileCache(this);
+				}
+				int maxColumns = Math.min(this.columns, clipRect.width() / cellWidth + 2);
+				int maxRows = Math.min(this.rows, clipRect.height() / cellHeight + 2);
+				tileCache.paint(g, startColumn, startRow, endColumn, endRow, maxColumns, maxRows);
+				return;
+			}
+			tileCache = null;
+
 			// paint all visible cells
 			int tileIndex = 0;
 
@@ -260,7 +292,7 @@ public class TiledLayer extends Layer {
 					if (tileIndex == 0) { // transparent tile
 						continue;
 					} else if (tileIndex < 0) {
-						tileIndex = getAnimatedTile(tileIndex);
+						tileIndex = anim_to_static[-tileIndex];
 					}
 
 					g.drawRegion(sourceImage,
@@ -275,6 +307,38 @@ public class TiledLayer extends Layer {
 		}
 	}
 
+	/**
+	 * Returns the static tile shown in the cell, resolving animated tiles.
+	 * Indices are not checked, the caller must stay within the layer.
+	 */
+	int getStaticTile(int col, int row) {
+		int tileIndex = cellMatrix[row][col];
+		if (tileIndex < 0) {
+			tileIndex = anim_to_static[-tileIndex];
+		}
+		return tileIndex;
+	}
+
+	/**
+	 * Returns the opacity mask of a static tile.
+	 * Masks of immutable tile sets are built once for all tiles and kept.
+	 */
+	PixelMask getTileMask(int tileIndex) {
+		if (sourceImage.isMutable()) {
+			return PixelMask.create(sourceImage, tileSetX[tileIndex], tileSetY[tileIndex],
+					cellWidth, cellHeight, Sprite.TRANS_NONE);
+		}
+		if (tileMasks == null) {
+			PixelMask[] masks = new PixelMask[numberOfTiles];
+			for (int i = 1; i < numberOfTiles; i++) {
+				masks[i] = PixelMask.create(sourceImage, tileSetX[i], tileSetY[i],
+						cellWidth, cellHeight, Sprite.TRANS_NONE);
+			}
+			tileMasks = masks;
+		}
+		return tileMasks[tileIndex];
+	}
+
 	private void createStaticSet(Image image, int noOfFrames, int tileWidth,
 								 int tileHeight, boolean maintainIndices) {
 		cellWidth = tileWidth;
@@ -284,6 +348,10 @@ public class TiledLayer extends Layer {
 		int imageH = image.getHeight();
 
 		sourceImage = image;
+		tileMasks = null;
+		if (tileCache != null) {
+			tileCache.invalidate();
+		}
 
 		numberOfTiles = noOfFrames;
 		tileSetX = new int[numberOfTiles];
@@ -17,22 +17,21 @@ package javax.microedition.lcdui.overlay;
 
 import android.view.View;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import javax.microedition.lcdui.Font;
 import javax.microedition.lcdui.Graphics;
+import javax.microedition.util.WheelTimer;
+import javax.microedition.util.WheelTimerTask;
 
-public class FpsCounter extends TimerTask implements Layer {
+public class FpsCounter extends WheelTimerTask implements Layer {
 
 	private final View view;
 	private String prevFrameCount = "0";
 	private int totalFrameCount;
-	private Timer mTimer;
+	private WheelTimer mTimer;
 
 	public FpsCounter(View view) {
 		this.view = view;
-		mTimer = new Timer("FpsCounter", true);
+		mTimer = new WheelTimer("FpsCounter", true);
 		mTimer.scheduleAtFixedRate(this, 0, 1000);
 	}
 
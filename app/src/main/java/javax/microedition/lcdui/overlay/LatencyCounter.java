@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.overlay;
+
+import android.view.View;
+
+import java.util.Locale;
+
+import javax.microedition.lcdui.Font;
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.event.LatencyTracer;
+import javax.microedition.util.LatencyHistogram;
+import javax.microedition.util.WheelTimer;
+import javax.microedition.util.WheelTimerTask;
+
+/**
+ * Shows the median and 90th percentile input-to-photon latency
+ * since tracing was enabled, below the FPS counter.
+ */
+public class LatencyCounter extends WheelTimerTask implements Layer {
+
+	private final View view;
+	private String text = "";
+	private long prevCount;
+	private WheelTimer mTimer;
+
+	public LatencyCounter(View view) {
+		this.view = view;
+		mTimer = new WheelTimer("LatencyCounter", true);
+		mTimer.scheduleAtFixedRate(this, 0, 1000);
+	}
+
+	public void run() {
+		LatencyHistogram histogram = LatencyTracer.getInputToPhoton();
+		if (histogram.getCount() == prevCount) {
+			return;
+		}
+		text = String.format(Locale.US, "%.1f / %.1f ms",
+				histogram.getPercentile(50) / 1000f, histogram.getPercentile(90) / 1000f);
+		prevCount = histogram.getCount();
+		view.postInvalidate();
+	}
+
+	public void paint(Graphics g) {
+		String latency = text;
+		if (latency.isEmpty()) {
+			return;
+		}
+		Font font = g.getFont();
+		int y = font.getHeight();
+		g.setColorAlpha(0x90000000);
+		g.fillRect(0, y, font.stringWidth(latency), font.getHeight());
+		g.setColor(0, 255, 0);
+		g.drawString(latency, 0, y, 0);
+	}
+
+	public void stop() {
+		mTimer.cancel();
+	}
+}
@@ -31,8 +31,10 @@ import javax.microedition.lcdui.Display;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.event.CanvasEvent;
 import javax.microedition.lcdui.overlay.Overlay;
+import javax.microedition.util.WheelTimer;
+import javax.microedition.util.WheelTimerTask;
 
-public class VirtualKeyboard implements Overlay, Runnable {
+public class VirtualKeyboard implements Overlay {
 
 	private static final String TAG = VirtualKeyboard.class.getName();
 	private static final String ARROW_LEFT = "\u2190";
@@ -268,9 +270,14 @@ public class VirtualKeyboard implements Overlay, Runnable {
 	private boolean feedback;
 	private static final int FEEDBACK_DURATION = 50;
 
-	private boolean visible, hiding, skip;
-	private final Object waiter = new Object();
-	private Thread hider;
+	private boolean visible, skip;
+
+	/**
+	 * Hides the keyboard after the delay, shared by all keyboards. A timer dies on an uncaught
+	 * exception, so the hide task must not throw.
+	 */
+	private static final WheelTimer hider = new WheelTimer("MIDletVirtualKeyboard", true);
+	private HideTask hideTask;
 
 	private int[] snapOrigins;
 	private int[] snapModes;
@@ -339,8 +346,6 @@ public class VirtualKeyboard implements Overlay, Runnable {
 		resetLayout(layoutVariant);
 		layoutEditMode = LAYOUT_EOF;
 		visible = true;
-		hider = new Thread(this, "MIDletVirtualKeyboard");
-		hider.start();
 	}
 
 	protected void resetLayout(int variant) {
@@ -743,7 +748,7 @@ public class VirtualKeyboard implements Overlay, Runnable {
 
 		switch (layoutEditMode) {
 			case LAYOUT_EOF:
-				if (pointer > associatedKeys.length) {
+				if (pointer >= associatedKeys.length) {
 					return checkPointerHandled(x, y);
 				}
 				for (VirtualKey aKeypad : keypad) {
@@ -801,7 +806,7 @@ public class VirtualKeyboard implements Overlay, Runnable {
 		}
 		switch (layoutEditMode) {
 			case LAYOUT_EOF:
-				if (pointer > associatedKeys.length) {
+				if (pointer >= associatedKeys.length) {
 					return checkPointerHandled(x, y);
 				}
 				VirtualKey key = associatedKeys[pointer];
@@ -885,7 +890,7 @@ public class VirtualKeyboard implements Overlay, Runnable {
 			return checkPointerHandled(x, y);
 		}
 		if (layoutEditMode == LAYOUT_EOF) {
-			if (pointer > associatedKeys.length) {
+			if (pointer >= associatedKeys.length) {
 				return checkPointerHandled(x, y);
 			}
 			if (associatedKeys[pointer] != null) {
@@ -903,12 +908,24 @@ public class VirtualKeyboard implements Overlay, Runnable {
 		return checkPointerHandled(x, y);
 	}
 
+	private class HideTask extends WheelTimerTask {
+		@Override
+		public void run() {
+			try {
+				visible = false;
+				skip = true;
+				repaint();
+			} catch (RuntimeException e) {
+				Log.w(TAG, "Can't hide the keyboard", e);
+			}
+		}
+	}
+
 	@Override
 	public void show() {
-		synchronized (waiter) {
-			if (hiding) {
-				hider.interrupt();
-			}
+		if (hideTask != null) {
+			hideTask.cancel();
+			hideTask = null;
 		}
 		visible = true;
 		repaint();
@@ -917,35 +934,11 @@ public class VirtualKeyboard implements Overlay, Runnable {
 	@Override
 	public void hide() {
 		if (delay >= 0 && obscuresVirtualScreen) {
-			synchronized (waiter) {
-				waiter.notifyAll();
-			}
-		}
-	}
-
-	@Override
-	public void run() {
-		try {
-			while (true) {
-				synchronized (waiter) {
-					hiding = false;
-					waiter.notifyAll();
-					waiter.wait();
-					hiding = true;
-				}
-				try {
-					if (delay > 0) {
-						Thread.sleep(delay);
-					}
-					visible = false;
-					skip = true;
-					repaint();
-				} catch (InterruptedException ie) {
-					ie.printStackTrace();
-				}
+			if (hideTask != null) {
+				hideTask.cancel();
 			}
-		} catch (InterruptedException ie) {
-			ie.printStackTrace();
+			hideTask = new HideTask();
+			hider.schedule(hideTask, delay);
 		}
 	}
 
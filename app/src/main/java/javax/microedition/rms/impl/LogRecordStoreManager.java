@@ -0,0 +1,484 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import android.os.Build;
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+import javax.microedition.rms.RecordStoreNotOpenException;
+import javax.microedition.shell.MyClassLoader;
+
+import com.deadlinegamedev.chaoscampus.config.Config;
+
+/**
+ * Record store manager keeping every record store in a single {@link RecordLog} file.
+ * <p>
+ * Stores written by the earlier file manager, a header file and a file per record,
+ * are converted to logs the first time the stores are listed or opened.
+ * <p>
+ * With {@link WriteBehindJournal} enabled the changes are queued and written in batches,
+ * the queue is looked up before the log when reading.
+ * <p>
+ * The space available to a store is the free space of the device, limited by the quota
+ * of the MIDlet if one is set. The size of the stores is kept up to date by the open stores,
+ * and read from the log headers for the closed ones.
+ */
+public class LogRecordStoreManager implements RecordStoreManager {
+
+	final static String LEGACY_HEADER_SUFFIX = ".rsh";
+
+	final static String LEGACY_RECORD_SUFFIX = ".rsr";
+
+	private final static Object NULL_STORE = new Object();
+
+	private static String TAG = RecordStore.class.getName();
+
+	private static final long FREE_SPACE_REFRESH_INTERVAL = 1000;
+
+	/**
+	 * Total size of the records of all stores of the MIDlet in bytes, 0 for no limit
+	 */
+	private static long quota;
+
+	private File dir;
+
+	private volatile Map<String, Object> recordStores = null;
+
+	private final Map<String, RecordLog> logs = new ConcurrentHashMap<>();
+
+	/**
+	 * Stores whose log is being flushed and closed, guarded by the manager
+	 */
+	private final Set<String> closing = new HashSet<>();
+
+	/**
+	 * Total size of the records of each store that is not open
+	 */
+	private final Map<String, Integer> closedSizes = new ConcurrentHashMap<>();
+
+	private volatile long freeSpace;
+
+	private volatile long freeSpaceTime;
+
+	/**
+	 * Keep the record stores of the running MIDlet
+	 */
+	public LogRecordStoreManager() {
+	}
+
+	public LogRecordStoreManager(File dir) {
+		this.dir = dir;
+	}
+
+	public static void setQuota(long quota) {
+		LogRecordStoreManager.quota = quota;
+	}
+
+	/**
+	 * @return the total size of the records in the stores of the directory, from the log headers
+	 */
+	public static long getUsedSize(File dir) {
+		long used = 0;
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(RecordLog.SUFFIX)) {
+					used += Math.max(0, RecordLog.readTotalSize(file));
+				}
+			}
+		}
+		return used;
+	}
+
+	@Override
+	public String getName() {
+		return "Log record store";
+	}
+
+	private void initializeIfNecessary() {
+		if (recordStores != null) {
+			return;
+		}
+		synchronized (this) {
+			if (recordStores != null) {
+				return;
+			}
+			if (dir == null) {
+				dir = new File(Config.DATA_DIR, MyClassLoader.getName());
+			}
+			dir.mkdirs();
+			// published when complete, the stores are looked up without the lock
+			Map<String, Object> stores = new ConcurrentHashMap<>();
+			String[] list = dir.list();
+			if (list != null) {
+				for (String name : list) {
+					if (name.endsWith(LEGACY_HEADER_SUFFIX)) {
+						String recordStoreName = name.substring(0, name.length() - LEGACY_HEADER_SUFFIX.length());
+						if (!getLogFile(recordStoreName).exists()) {
+							migrate(recordStoreName, list);
+						}
+					}
+				}
+				list = dir.list();
+				for (String name : list) {
+					if (name.endsWith(RecordLog.SUFFIX)) {
+						String recordStoreName = name.substring(0, name.length() - RecordLog.SUFFIX.length());
+						stores.put(recordStoreName, NULL_STORE);
+						closedSizes.put(recordStoreName, Math.max(0, RecordLog.readTotalSize(new File(dir, name))));
+					}
+				}
+			}
+			recordStores = stores;
+		}
+	}
+
+	/**
+	 * Convert a store of the earlier file manager to a log and delete the old files.
+	 * The log is written under a temporary name, so an interrupted conversion is simply repeated.
+	 */
+	private void migrate(String recordStoreName, String[] list) {
+		File header = new File(dir, recordStoreName + LEGACY_HEADER_SUFFIX);
+		File temp = new File(dir, recordStoreName + RecordLog.SUFFIX + ".tmp");
+		temp.delete();
+		try {
+			RecordStoreImpl legacy = new RecordStoreImpl(this);
+			try (DataInputStream dis = new DataInputStream(new FileInputStream(header))) {
+				legacy.readHeader(dis);
+			}
+			legacy.setOpen(true);
+			int version = legacy.getVersion();
+			long lastModified = legacy.getLastModified();
+
+			String prefix = recordStoreName + ".";
+			RecordLog log = RecordLog.open(temp);
+			int count = 0;
+			for (String name : list) {
+				if (!name.startsWith(prefix) || !name.endsWith(LEGACY_RECORD_SUFFIX)) {
+					continue;
+				}
+				String id = name.substring(prefix.length(), name.length() - LEGACY_RECORD_SUFFIX.length());
+				if (!id.matches("[0-9]+")) {
+					continue;
+				}
+				try (DataInputStream dis = new DataInputStream(new FileInputStream(new File(dir, name)))) {
+					int recordId = dis.readInt();
+					dis.readInt(); // Tag
+					byte[] data = new byte[dis.readInt()];
+					dis.readFully(data);
+					log.put(recordId, data, 0, data.length, version, lastModified);
+					count++;
+				}
+			}
+			log.close();
+			if (!temp.renameTo(getLogFile(recordStoreName))) {
+				throw new IOException("Can't rename " + temp);
+			}
+			for (String name : list) {
+				if (name.startsWith(prefix) && name.endsWith(LEGACY_RECORD_SUFFIX)) {
+					new File(dir, name).delete();
+				}
+			}
+			header.delete();
+			Log.d(TAG, "RecordStore " + recordStoreName + " converted to log, " + count + " records");
+		} catch (IOException | RecordStoreException e) {
+			Log.e(TAG, "RecordStore " + recordStoreName + " conversion failed", e);
+			temp.delete();
+		}
+	}
+
+	@Override
+	public synchronized void deleteRecordStore(final String recordStoreName)
+			throws RecordStoreNotFoundException, RecordStoreException {
+		initializeIfNecessary();
+		awaitClose(recordStoreName);
+
+		Object value = recordStores.get(recordStoreName);
+		if (value == null) {
+			throw new RecordStoreNotFoundException(recordStoreName);
+		}
+		if (value instanceof RecordStoreImpl && ((RecordStoreImpl) value).isOpen()) {
+			throw new RecordStoreException();
+		}
+
+		getLogFile(recordStoreName).delete();
+		recordStores.remove(recordStoreName);
+		closedSizes.remove(recordStoreName);
+		Log.d(TAG, "RecordStore " + recordStoreName + " deleted");
+	}
+
+	@Override
+	public synchronized RecordStore openRecordStore(String recordStoreName, boolean createIfNecessary)
+			throws RecordStoreException {
+		initializeIfNecessary();
+
+		RecordStoreImpl recordStoreImpl = new RecordStoreImpl(this, recordStoreName);
+		recordStoreName = recordStoreImpl.getNameInternal();
+		awaitClose(recordStoreName);
+		Object value = recordStores.get(recordStoreName);
+		if (value instanceof RecordStoreImpl && ((RecordStoreImpl) value).isOpen()) {
+			// the store has a single log, all users have to share it
+			((RecordStoreImpl) value).retain();
+			return (RecordStore) value;
+		}
+		if (value == null && !createIfNecessary) {
+			throw new RecordStoreNotFoundException(recordStoreName);
+		}
+
+		// left open by a close that could not write the journal, which still retries it
+		RecordLog log = logs.get(recordStoreName);
+		if (log == null) {
+			try {
+				log = RecordLog.open(getLogFile(recordStoreName));
+			} catch (IOException e) {
+				Log.e(TAG, "RecordStore.openRecordStore: ERROR reading " + recordStoreName, e);
+				throw new RecordStoreException(e.getMessage());
+			}
+		}
+		recordStoreImpl.setState(log.getLastRecordId(), log.getNumRecords(), log.getTotalSize(),
+				log.getVersion(), log.getLastModified());
+		recordStoreImpl.setOpen(true);
+		logs.put(recordStoreName, log);
+		recordStores.put(recordStoreName, recordStoreImpl);
+		closedSizes.remove(recordStoreName);
+
+		Log.d(TAG, "RecordStore " + recordStoreName + " opened");
+		return recordStoreImpl;
+	}
+
+	@Override
+	public String[] listRecordStores() {
+		initializeIfNecessary();
+
+		String[] result = recordStores.keySet().toArray(new String[0]);
+
+		if (result.length > 0) {
+			return result;
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public int getRecordSize(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreNotOpenException {
+		RecordLog log = getLog(recordStoreImpl);
+		// queued changes are found even after the journal is disabled, until they are flushed
+		WriteBehindJournal.Entry entry = WriteBehindJournal.get(log, recordId);
+		if (entry != null) {
+			return entry.data == null ? -1 : entry.data.length;
+		}
+		return log.getRecordSize(recordId);
+	}
+
+	@Override
+	public int readRecord(RecordStoreImpl recordStoreImpl, int recordId, byte[] buffer, int offset)
+			throws RecordStoreNotOpenException, InvalidRecordIDException {
+		RecordLog log = getLog(recordStoreImpl);
+		WriteBehindJournal.Entry entry = WriteBehindJournal.get(log, recordId);
+		if (entry != null) {
+			if (entry.data == null) {
+				throw new InvalidRecordIDException();
+			}
+			System.arraycopy(entry.data, 0, buffer, offset, entry.data.length);
+			return entry.data.length;
+		}
+		int size = log.read(recordId, buffer, offset);
+		if (size < 0) {
+			throw new InvalidRecordIDException();
+		}
+		return size;
+	}
+
+	@Override
+	public int[] getRecordIds(RecordStoreImpl recordStoreImpl) throws RecordStoreNotOpenException {
+		RecordLog log = getLog(recordStoreImpl);
+		return WriteBehindJournal.mergeRecordIds(log, log.getRecordIds());
+	}
+
+	@Override
+	public void deleteRecord(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreNotOpenException, RecordStoreException {
+		RecordLog log = getLog(recordStoreImpl);
+		if (WriteBehindJournal.isEnabled()) {
+			WriteBehindJournal.delete(log, recordId,
+					recordStoreImpl.getVersion(), recordStoreImpl.getLastModified());
+			return;
+		}
+		try {
+			// changes still queued from before the journal was disabled must not overwrite this one
+			WriteBehindJournal.flush(log);
+			log.delete(recordId,
+					recordStoreImpl.getVersion(), recordStoreImpl.getLastModified());
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.deleteRecord: ERROR writing " + recordStoreImpl.getName() + "." + recordId, e);
+			throw new RecordStoreException(e.getMessage());
+		}
+	}
+
+	@Override
+	public void saveRecord(RecordStoreImpl recordStoreImpl, int recordId, byte[] data, int offset, int numBytes)
+			throws RecordStoreNotOpenException, RecordStoreException {
+		RecordLog log = getLog(recordStoreImpl);
+		if (WriteBehindJournal.isEnabled()) {
+			byte[] recordData = new byte[numBytes];
+			if (numBytes > 0) {
+				System.arraycopy(data, offset, recordData, 0, numBytes);
+			}
+			WriteBehindJournal.put(log, recordId, recordData,
+					recordStoreImpl.getVersion(), recordStoreImpl.getLastModified());
+			return;
+		}
+		try {
+			WriteBehindJournal.flush(log);
+			log.put(recordId, data, offset, numBytes,
+					recordStoreImpl.getVersion(), recordStoreImpl.getLastModified());
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.saveRecord: ERROR writing " + recordStoreImpl.getName() + "." + recordId, e);
+			throw new RecordStoreException(e.getMessage());
+		}
+	}
+
+	/**
+	 * The store is released and its log taken out under the manager, the same lock an open
+	 * of the store holds. The log is then written and closed without holding the manager,
+	 * the other stores are not held up by it. Opening or deleting the same store waits until
+	 * it is done.
+	 */
+	@Override
+	public void closeRecordStore(RecordStoreImpl recordStoreImpl) throws RecordStoreException {
+		String recordStoreName = recordStoreImpl.getNameInternal();
+		RecordLog log;
+		synchronized (this) {
+			if (!recordStoreImpl.release() || recordStores.get(recordStoreName) != recordStoreImpl) {
+				return;
+			}
+			log = logs.remove(recordStoreName);
+			if (log == null) {
+				return;
+			}
+			closing.add(recordStoreName);
+			closedSizes.put(recordStoreName, recordStoreImpl.getSizeInternal());
+		}
+		try {
+			// let the change in progress finish before the log is closed
+			recordStoreImpl.awaitChanges();
+			try {
+				WriteBehindJournal.close(log);
+			} catch (IOException e) {
+				// kept open for the journal, the next open of the store takes it over
+				logs.put(recordStoreName, log);
+				throw e;
+			}
+			log.close();
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.closeRecordStore: ERROR closing " + recordStoreName, e);
+			throw new RecordStoreException(e.getMessage());
+		} finally {
+			synchronized (this) {
+				closing.remove(recordStoreName);
+				notifyAll();
+			}
+		}
+		Log.d(TAG, "RecordStore " + recordStoreName + " closed");
+	}
+
+	/**
+	 * Wait for another thread closing the store, its log must not be opened twice
+	 */
+	private void awaitClose(String recordStoreName) throws RecordStoreException {
+		while (closing.contains(recordStoreName)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RecordStoreException(e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public int getSizeAvailable(RecordStoreImpl recordStoreImpl) {
+		initializeIfNecessary();
+
+		long available = getFreeSpace();
+		if (quota > 0) {
+			available = Math.min(available, quota - getUsedSize());
+		}
+		return (int) Math.max(0, Math.min(available, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * @return the total size of the records in all stores
+	 */
+	long getUsedSize() {
+		long used = 0;
+		for (Object value : recordStores.values()) {
+			if (value instanceof RecordStoreImpl && ((RecordStoreImpl) value).isOpen()) {
+				used += ((RecordStoreImpl) value).getSizeInternal();
+			}
+		}
+		for (int size : closedSizes.values()) {
+			used += size;
+		}
+		return used;
+	}
+
+	/**
+	 * Every write checks the available space, the free space is only queried once in a while.
+	 * Not synchronized, concurrent writers may both query it.
+	 */
+	private long getFreeSpace() {
+		long now = System.currentTimeMillis();
+		if (freeSpaceTime == 0 || now - freeSpaceTime > FREE_SPACE_REFRESH_INTERVAL) {
+			StatFs statFs = new StatFs(dir.getPath());
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+				freeSpace = statFs.getAvailableBytes();
+			} else {
+				freeSpace = (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+			}
+			freeSpaceTime = now;
+		}
+		return freeSpace;
+	}
+
+	private RecordLog getLog(RecordStoreImpl recordStoreImpl) throws RecordStoreNotOpenException {
+		RecordLog log = logs.get(recordStoreImpl.getNameInternal());
+		if (log == null) {
+			throw new RecordStoreNotOpenException();
+		}
+		return log;
+	}
+
+	private File getLogFile(String recordStoreName) {
+		return new File(dir, recordStoreName + RecordLog.SUFFIX);
+	}
+
+}
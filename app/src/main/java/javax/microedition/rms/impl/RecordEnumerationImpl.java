@@ -25,8 +25,9 @@
 
 package javax.microedition.rms.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Vector;
+import java.util.Comparator;
 
 import javax.microedition.rms.InvalidRecordIDException;
 import javax.microedition.rms.RecordComparator;
@@ -37,30 +38,48 @@ import javax.microedition.rms.RecordStore;
 import javax.microedition.rms.RecordStoreException;
 import javax.microedition.rms.RecordStoreNotOpenException;
 
+/**
+ * Enumeration over the record ids of the store.
+ * <p>
+ * The records are read only to be filtered or sorted, otherwise the data is fetched when it is
+ * returned. Without a comparator the records are kept in id order. An enumeration kept updated
+ * applies each change to its list: the changed record is filtered again and inserted at its
+ * place, the rest is neither read nor sorted again.
+ */
 public class RecordEnumerationImpl implements RecordEnumeration {
 	private RecordStoreImpl recordStoreImpl;
 	private RecordFilter filter;
 	private RecordComparator comparator;
 	private boolean keepUpdated;
 
-	private Vector<EnumerationRecord> enumerationRecords = new Vector<>();
+	private ArrayList<EnumerationRecord> enumerationRecords = new ArrayList<>();
 	private int currentRecord;
 
+	private final Comparator<EnumerationRecord> recordComparator = (lhs, rhs) -> {
+		int compare = comparator.compare(lhs.value, rhs.value);
+		if (compare == RecordComparator.EQUIVALENT)
+			return 0;
+		else if (compare == RecordComparator.FOLLOWS)
+			return 1;
+		else
+			return -1;
+	};
+
 	private RecordListener recordListener = new RecordListener() {
 
 		@Override
 		public void recordAdded(RecordStore recordStore, int recordId) {
-			rebuild();
+			update(recordId, false);
 		}
 
 		@Override
 		public void recordChanged(RecordStore recordStore, int recordId) {
-			rebuild();
+			update(recordId, true);
 		}
 
 		@Override
 		public void recordDeleted(RecordStore recordStore, int recordId) {
-			rebuild();
+			remove(recordId);
 		}
 
 	};
@@ -79,7 +98,7 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 	}
 
 	@Override
-	public int numRecords() {
+	public synchronized int numRecords() {
 		return enumerationRecords.size();
 	}
 
@@ -90,24 +109,27 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 			throw new RecordStoreNotOpenException();
 		}
 
-		if (currentRecord >= numRecords()) {
-			throw new InvalidRecordIDException();
-		}
+		EnumerationRecord record;
+		synchronized (this) {
+			if (currentRecord >= numRecords()) {
+				throw new InvalidRecordIDException();
+			}
 
-		byte[] result = enumerationRecords.elementAt(currentRecord).value;
-		currentRecord++;
+			record = enumerationRecords.get(currentRecord);
+			currentRecord++;
+		}
 
-		return result;
+		return getValue(record);
 	}
 
 	@Override
-	public int nextRecordId()
+	public synchronized int nextRecordId()
 			throws InvalidRecordIDException {
 		if (currentRecord >= numRecords()) {
 			throw new InvalidRecordIDException();
 		}
 
-		int result = enumerationRecords.elementAt(currentRecord).recordId;
+		int result = enumerationRecords.get(currentRecord).recordId;
 		currentRecord++;
 
 		return result;
@@ -119,89 +141,177 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 		if (!recordStoreImpl.isOpen()) {
 			throw new RecordStoreNotOpenException();
 		}
-		if (currentRecord < 0) {
-			throw new InvalidRecordIDException();
-		}
 
-		currentRecord--;
+		EnumerationRecord record;
+		synchronized (this) {
+			if (currentRecord <= 0) {
+				throw new InvalidRecordIDException();
+			}
 
-		return enumerationRecords.elementAt(currentRecord).value;
+			currentRecord--;
+			record = enumerationRecords.get(currentRecord);
+		}
+
+		return getValue(record);
 	}
 
 	@Override
-	public int previousRecordId()
+	public synchronized int previousRecordId()
 			throws InvalidRecordIDException {
-		if (currentRecord < 0) {
+		if (currentRecord <= 0) {
 			throw new InvalidRecordIDException();
 		}
 
 		currentRecord--;
 
-		return enumerationRecords.elementAt(currentRecord).recordId;
+		return enumerationRecords.get(currentRecord).recordId;
 	}
 
 	@Override
-	public boolean hasNextElement() {
-		if (currentRecord == numRecords()) {
-			return false;
-		} else {
-			return true;
-		}
+	public synchronized boolean hasNextElement() {
+		return currentRecord < numRecords();
 	}
 
 	@Override
-	public boolean hasPreviousElement() {
-		return currentRecord != 0;
+	public synchronized boolean hasPreviousElement() {
+		return currentRecord > 0;
 	}
 
 	@Override
-	public void reset() {
+	public synchronized void reset() {
 		currentRecord = 0;
 	}
 
 	@Override
-	public void rebuild() {
-		enumerationRecords.removeAllElements();
-		//
-		// filter
-		//
-		synchronized (recordStoreImpl) {
-			try {
-				int recordId = 1;
-				int i = 0;
-				while (i < recordStoreImpl.getNumRecords()) {
-					try {
-						byte[] data = recordStoreImpl.getRecord(recordId);
-						i++;
-						if (filter != null && !filter.matches(data)) {
-							recordId++;
-							continue;
-						}
-						enumerationRecords.add(new EnumerationRecord(recordId, data));
-					} catch (InvalidRecordIDException e) {
-						e.printStackTrace();
+	public synchronized void rebuild() {
+		enumerationRecords.clear();
+		try {
+			int[] ids = recordStoreImpl.getRecordIds();
+			enumerationRecords.ensureCapacity(ids.length);
+			for (int recordId : ids) {
+				if (filter == null && comparator == null) {
+					enumerationRecords.add(new EnumerationRecord(recordId, null));
+					continue;
+				}
+				try {
+					byte[] data = recordStoreImpl.getRecord(recordId);
+					if (filter != null && !filter.matches(data)) {
+						continue;
 					}
-					recordId++;
+					// the data is needed again only to compare it
+					enumerationRecords.add(new EnumerationRecord(recordId, comparator != null ? data : null));
+				} catch (InvalidRecordIDException e) {
+					// deleted in the meantime
 				}
+			}
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+		}
+
+		if (comparator != null) {
+			Collections.sort(enumerationRecords, recordComparator);
+		}
+		if (currentRecord > enumerationRecords.size()) {
+			currentRecord = enumerationRecords.size();
+		}
+	}
+
+	/**
+	 * Filter the added or changed record and insert it at its place
+	 */
+	private synchronized void update(int recordId, boolean changed) {
+		if (changed) {
+			remove(recordId);
+		}
+		EnumerationRecord record;
+		if (filter == null && comparator == null) {
+			record = new EnumerationRecord(recordId, null);
+		} else {
+			try {
+				byte[] data = recordStoreImpl.getRecord(recordId);
+				if (filter != null && !filter.matches(data)) {
+					return;
+				}
+				record = new EnumerationRecord(recordId, comparator != null ? data : null);
 			} catch (RecordStoreException e) {
 				e.printStackTrace();
+				return;
 			}
 		}
 
-		//
-		// sort
-		//
+		int index;
+		if (comparator != null) {
+			// after the equivalent records, as a stable sort would put it
+			int low = 0;
+			int high = enumerationRecords.size();
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (recordComparator.compare(enumerationRecords.get(middle), record) <= 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			index = low;
+		} else {
+			index = -indexOfId(recordId) - 1;
+		}
+		enumerationRecords.add(index, record);
+		if (index < currentRecord) {
+			currentRecord++;
+		}
+	}
+
+	private synchronized void remove(int recordId) {
+		int index;
 		if (comparator != null) {
-			Collections.sort(enumerationRecords, (lhs, rhs) -> {
-				int compare = comparator.compare(lhs.value, rhs.value);
-				if (compare == RecordComparator.EQUIVALENT)
-					return 0;
-				else if (compare == RecordComparator.FOLLOWS)
-					return 1;
-				else
-					return -1;
-			});
+			index = -1;
+			for (int i = 0; i < enumerationRecords.size(); i++) {
+				if (enumerationRecords.get(i).recordId == recordId) {
+					index = i;
+					break;
+				}
+			}
+		} else {
+			index = indexOfId(recordId);
+		}
+		if (index < 0) {
+			return;
+		}
+		enumerationRecords.remove(index);
+		if (index < currentRecord) {
+			currentRecord--;
+		}
+	}
+
+	/**
+	 * Binary search of the records kept in id order
+	 *
+	 * @return the index of the record, or (-(insertion point) - 1) if it is not enumerated
+	 */
+	private int indexOfId(int recordId) {
+		int low = 0;
+		int high = enumerationRecords.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int id = enumerationRecords.get(middle).recordId;
+			if (id < recordId) {
+				low = middle + 1;
+			} else if (id > recordId) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private byte[] getValue(EnumerationRecord record)
+			throws InvalidRecordIDException, RecordStoreNotOpenException, RecordStoreException {
+		if (record.value != null) {
+			return record.value;
 		}
+		return recordStoreImpl.getRecord(record.recordId);
 	}
 
 	@Override
@@ -225,10 +335,14 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 
 	@Override
 	public void destroy() {
+		recordStoreImpl.removeRecordListener(recordListener);
 	}
 
 	class EnumerationRecord {
 		int recordId;
+		/**
+		 * The data kept for the comparator, null if it is read on demand
+		 */
 		byte[] value;
 
 		EnumerationRecord(int recordId, byte[] value) {
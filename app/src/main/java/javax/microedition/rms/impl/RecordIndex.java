@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from record ids to the offsets of their log entries, without boxing.
+ * <p>
+ * Ids are positive, 0 marks a free slot. Collisions are resolved by linear probing and
+ * removal shifts the following entries back, so there are no tombstones.
+ * Unlike a sorted array, a lookup or update does not depend on the number of records.
+ * Not synchronized, the record log guards it with its own lock.
+ */
+final class RecordIndex {
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	RecordIndex() {
+		this(0);
+	}
+
+	/**
+	 * @param expected the number of records to make room for
+	 */
+	RecordIndex(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private int indexOf(int key) {
+		int i = hash(key) & mask;
+		while (true) {
+			int k = keys[i];
+			if (k == key) {
+				return i;
+			}
+			if (k == 0) {
+				return -1;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return the offset of the record, or -1 if it is not in the index
+	 */
+	int get(int recordId) {
+		int i = indexOf(recordId);
+		return i < 0 ? -1 : values[i];
+	}
+
+	/**
+	 * @return the previous offset of the record, or -1 if it was not in the index
+	 */
+	int put(int recordId, int offset) {
+		if (recordId <= 0) {
+			throw new IllegalArgumentException("Invalid record id " + recordId);
+		}
+		int i = hash(recordId) & mask;
+		while (true) {
+			int k = keys[i];
+			if (k == recordId) {
+				int previous = values[i];
+				values[i] = offset;
+				return previous;
+			}
+			if (k == 0) {
+				break;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = recordId;
+		values[i] = offset;
+		// keep the probe sequences short, at most half of the slots are used
+		if (++size * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the offset of the removed record, or -1 if it was not in the index
+	 */
+	int remove(int recordId) {
+		int i = indexOf(recordId);
+		if (i < 0) {
+			return -1;
+		}
+		int previous = values[i];
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			int k = keys[j];
+			if (k == 0) {
+				break;
+			}
+			// move the entry back to the freed slot unless its home slot lies in (i, j]
+			int home = hash(k) & mask;
+			if (i <= j ? home <= i || home > j : home <= i && home > j) {
+				keys[i] = k;
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = 0;
+		values[i] = 0;
+		size--;
+		return previous;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the ids of all records, in ascending order
+	 */
+	int[] keys() {
+		int[] ids = new int[size];
+		int n = 0;
+		for (int k : keys) {
+			if (k != 0) {
+				ids[n++] = k;
+			}
+		}
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Slot access for iteration: slots with {@link #keyAt(int)} 0 are free.
+	 */
+	int capacity() {
+		return keys.length;
+	}
+
+	int keyAt(int slot) {
+		return keys[slot];
+	}
+
+	int valueAt(int slot) {
+		return values[slot];
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int j = 0; j < oldKeys.length; j++) {
+			int k = oldKeys[j];
+			if (k != 0) {
+				int i = hash(k) & mask;
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
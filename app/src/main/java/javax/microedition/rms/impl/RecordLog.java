@@ -0,0 +1,530 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log holding all records of one record store, accessed through a memory mapping.
+ * <p>
+ * The file starts with a fixed {@link #HEADER_SIZE} byte header holding the store state:
+ * the last record id given out, the number of records, their total size, the store version and
+ * modification time, and the end of the log. Opening a store reads only the header.
+ * It is followed by entries of the form {@code type, recordId, version, lastModified, length,
+ * data, crc32}, a put entry replacing the record and a delete entry removing it. The id to
+ * offset index is built from the entry headers on first access to a record, and records are
+ * copied straight between the mapping and the caller's arrays.
+ * <p>
+ * The header is marked clean when the log is closed and dirty before the first change after
+ * opening it. A log that was not closed, because the process was killed, is replayed
+ * checking every entry: an entry that is cut short or fails its checksum ends the log,
+ * and the store comes back as it was before the failed write. The last record id never goes
+ * below the one in the header, so the ids of deleted records are not given out again.
+ * When less than half of the log is in use, the live records are copied to a new file which
+ * then atomically replaces the log.
+ * <p>
+ * Changes are not synced to the disk one by one, a killed process loses nothing once
+ * the write returned. The file is synced when it is compacted and closed.
+ */
+final class RecordLog {
+	private static final String TAG = RecordLog.class.getName();
+
+	static final String SUFFIX = ".rsl";
+
+	private static final byte[] MAGIC = {0x4d, 0x49, 0x44, 0x52, 0x4d, 0x53, 0x4c, 0x02};
+	private static final int FORMAT_VERSION_OFFSET = 7;
+	private static final int FORMAT_VERSION_1 = 0x01;
+
+	// header layout
+	private static final int HEADER_FLAGS = 8;
+	private static final int HEADER_LAST_RECORD_ID = 12;
+	private static final int HEADER_COUNT = 16;
+	private static final int HEADER_TOTAL_SIZE = 20;
+	private static final int HEADER_VERSION = 24;
+	private static final int HEADER_LAST_MODIFIED = 28;
+	private static final int HEADER_LOG_END = 36;
+	private static final int HEADER_LIVE_LENGTH = 40;
+	static final int HEADER_SIZE = 64;
+
+	private static final int FLAG_CLEAN = 1;
+
+	private static final byte TYPE_PUT = 1;
+	private static final byte TYPE_DELETE = 2;
+	// only carries the last record id, written by the first format
+	private static final byte TYPE_HEADER_V1 = 3;
+
+	// type, recordId, version, lastModified, length
+	private static final int ENTRY_HEADER_SIZE = 1 + 4 + 4 + 8 + 4;
+	private static final int ENTRY_LENGTH = 17;
+	private static final int ENTRY_OVERHEAD = ENTRY_HEADER_SIZE + 4;
+
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final int COMPACT_MIN_LENGTH = 64 * 1024;
+
+	private final File file;
+	private final boolean readOnly;
+	private RandomAccessFile raf;
+	private MappedByteBuffer map;
+	private int capacity;
+	private boolean dirty;
+
+	private int lastRecordId;
+	private int count;
+	private int totalSize;
+	private int version;
+	private long lastModified;
+	private int logEnd;
+	private int liveLength;
+
+	/**
+	 * Record id to the offset of its entry, null until needed
+	 */
+	private RecordIndex offsets;
+
+	private final CRC32 crc = new CRC32();
+	private final byte[] entryHeader = new byte[ENTRY_HEADER_SIZE];
+	private byte[] buffer = new byte[256];
+
+	private RecordLog(File file, boolean readOnly) {
+		this.file = file;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Open the log, replaying and if needed repairing it, or create an empty one.
+	 */
+	static RecordLog open(File file) throws IOException {
+		return open(file, false);
+	}
+
+	/**
+	 * Open the log for reading only. A log that was not closed is replayed in memory,
+	 * the file is never repaired, upgraded or compacted.
+	 */
+	static RecordLog openReadOnly(File file) throws IOException {
+		return open(file, true);
+	}
+
+	private static RecordLog open(File file, boolean readOnly) throws IOException {
+		RecordLog log = new RecordLog(file, readOnly);
+		log.raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+		try {
+			log.load();
+		} catch (IOException | RuntimeException e) {
+			log.raf.close();
+			throw e;
+		}
+		return log;
+	}
+
+	/**
+	 * Read the total size of the records from the header, without opening the log
+	 *
+	 * @return the size, or -1 if the file is not a log with a header
+	 */
+	static int readTotalSize(File file) {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			byte[] header = new byte[HEADER_SIZE];
+			in.readFully(header);
+			if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+				return -1;
+			}
+			return (header[HEADER_TOTAL_SIZE] & 0xff) << 24 | (header[HEADER_TOTAL_SIZE + 1] & 0xff) << 16
+					| (header[HEADER_TOTAL_SIZE + 2] & 0xff) << 8 | header[HEADER_TOTAL_SIZE + 3] & 0xff;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private void load() throws IOException {
+		long length = raf.length();
+		if (length > Integer.MAX_VALUE || length > 0 && length < MAGIC.length) {
+			throw new IOException("Not a record log: " + file);
+		}
+		if (readOnly && length == 0) {
+			offsets = new RecordIndex();
+			logEnd = HEADER_SIZE;
+			return;
+		}
+		// a read-only mapping can't extend the file
+		map(readOnly ? (int) length : Math.max((int) length, INITIAL_CAPACITY));
+		byte[] magic = new byte[MAGIC.length];
+		map.position(0);
+		map.get(magic);
+		if (Arrays.equals(magic, new byte[MAGIC.length])) {
+			// a new file, or one that was created just before the system went down
+			if (readOnly) {
+				offsets = new RecordIndex();
+				logEnd = HEADER_SIZE;
+				return;
+			}
+			map.position(0);
+			map.put(MAGIC);
+			logEnd = HEADER_SIZE;
+			writeHeader(FLAG_CLEAN);
+			offsets = new RecordIndex();
+			return;
+		}
+		if (magic[FORMAT_VERSION_OFFSET] == FORMAT_VERSION_1) {
+			magic[FORMAT_VERSION_OFFSET] = MAGIC[FORMAT_VERSION_OFFSET];
+			if (Arrays.equals(magic, MAGIC)) {
+				// the first format had no header, the entries are the same
+				Log.i(TAG, "Upgrading " + file);
+				recover(MAGIC.length);
+				if (!readOnly) {
+					compact();
+				}
+				return;
+			}
+		}
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a record log: " + file);
+		}
+		if (capacity < HEADER_SIZE) {
+			throw new IOException("Broken record log header: " + file);
+		}
+		if ((map.getInt(HEADER_FLAGS) & FLAG_CLEAN) == 0) {
+			Log.w(TAG, "Recovering " + file + " after it was not closed");
+			// the deletes of the highest ids may have been dropped by a compaction,
+			// the header still has the id they took
+			int headerLastRecordId = map.getInt(HEADER_LAST_RECORD_ID);
+			recover(HEADER_SIZE);
+			lastRecordId = Math.max(lastRecordId, headerLastRecordId);
+			if (readOnly) {
+				return;
+			}
+			writeHeader(0);
+			dirty = true;
+			return;
+		}
+		lastRecordId = map.getInt(HEADER_LAST_RECORD_ID);
+		count = map.getInt(HEADER_COUNT);
+		totalSize = map.getInt(HEADER_TOTAL_SIZE);
+		version = map.getInt(HEADER_VERSION);
+		lastModified = map.getLong(HEADER_LAST_MODIFIED);
+		logEnd = map.getInt(HEADER_LOG_END);
+		liveLength = map.getInt(HEADER_LIVE_LENGTH);
+		if (logEnd < HEADER_SIZE || logEnd > capacity) {
+			throw new IOException("Broken record log header: " + file);
+		}
+	}
+
+	private void map(int size) throws IOException {
+		map = raf.getChannel().map(readOnly ? FileChannel.MapMode.READ_ONLY
+				: FileChannel.MapMode.READ_WRITE, 0, size);
+		capacity = size;
+	}
+
+	private void writeHeader(int flags) {
+		map.putInt(HEADER_FLAGS, flags);
+		map.putInt(HEADER_LAST_RECORD_ID, lastRecordId);
+		map.putInt(HEADER_COUNT, count);
+		map.putInt(HEADER_TOTAL_SIZE, totalSize);
+		map.putInt(HEADER_VERSION, version);
+		map.putLong(HEADER_LAST_MODIFIED, lastModified);
+		map.putInt(HEADER_LOG_END, logEnd);
+		map.putInt(HEADER_LIVE_LENGTH, liveLength);
+	}
+
+	/**
+	 * Rebuild the index and the state from the entries, checking each of them,
+	 * and cut the log at the first broken one.
+	 */
+	private void recover(int start) {
+		offsets = new RecordIndex();
+		lastRecordId = count = totalSize = liveLength = 0;
+		int position = start;
+		while (position + ENTRY_OVERHEAD <= capacity) {
+			int type = map.get(position);
+			int length = map.getInt(position + ENTRY_LENGTH);
+			if (type < TYPE_PUT || type > TYPE_HEADER_V1
+					|| length < 0 || length > capacity - position - ENTRY_OVERHEAD) {
+				break;
+			}
+			byte[] entry = ensureBuffer(ENTRY_HEADER_SIZE + length);
+			map.position(position);
+			map.get(entry, 0, ENTRY_HEADER_SIZE + length);
+			crc.reset();
+			crc.update(entry, 0, ENTRY_HEADER_SIZE + length);
+			if (map.getInt(position + ENTRY_HEADER_SIZE + length) != (int) crc.getValue()) {
+				break;
+			}
+			int recordId = map.getInt(position + 1);
+			if (type == TYPE_HEADER_V1) {
+				lastRecordId = Math.max(lastRecordId, recordId);
+			} else {
+				apply(type, recordId, position, length);
+			}
+			version = map.getInt(position + 5);
+			lastModified = map.getLong(position + 9);
+			position += ENTRY_OVERHEAD + length;
+		}
+		logEnd = position;
+		if (readOnly) {
+			return;
+		}
+		// leftovers of the broken entry must not be taken for entries on the next recovery
+		for (int i = logEnd; i < capacity; i++) {
+			map.put(i, (byte) 0);
+		}
+	}
+
+	private void ensureIndex() {
+		if (offsets != null) {
+			return;
+		}
+		RecordIndex index = new RecordIndex(count);
+		int position = HEADER_SIZE;
+		while (position < logEnd) {
+			int recordId = map.getInt(position + 1);
+			if (map.get(position) == TYPE_PUT) {
+				index.put(recordId, position);
+			} else {
+				index.remove(recordId);
+			}
+			position += ENTRY_OVERHEAD + map.getInt(position + ENTRY_LENGTH);
+		}
+		offsets = index;
+	}
+
+	private void apply(int type, int recordId, int offset, int length) {
+		if (recordId > lastRecordId) {
+			lastRecordId = recordId;
+		}
+		int previous = offsets.remove(recordId);
+		if (previous >= 0) {
+			int size = map.getInt(previous + ENTRY_LENGTH);
+			liveLength -= ENTRY_OVERHEAD + size;
+			totalSize -= size;
+			count--;
+		}
+		if (type == TYPE_PUT) {
+			offsets.put(recordId, offset);
+			liveLength += ENTRY_OVERHEAD + length;
+			totalSize += length;
+			count++;
+		}
+	}
+
+	synchronized void put(int recordId, byte[] data, int offset, int numBytes,
+						  int version, long lastModified) throws IOException {
+		append(TYPE_PUT, recordId, data, offset, numBytes, version, lastModified);
+	}
+
+	synchronized void delete(int recordId, int version, long lastModified) throws IOException {
+		append(TYPE_DELETE, recordId, null, 0, 0, version, lastModified);
+	}
+
+	private void append(byte type, int recordId, byte[] data, int offset, int numBytes,
+						int version, long lastModified) throws IOException {
+		if (readOnly) {
+			throw new IOException("Record log opened read-only: " + file);
+		}
+		ensureIndex();
+		int entryLength = ENTRY_OVERHEAD + numBytes;
+		if (logEnd + entryLength > capacity) {
+			map(Math.max(logEnd + entryLength, capacity * 2));
+		}
+		if (!dirty) {
+			map.putInt(HEADER_FLAGS, 0);
+			dirty = true;
+		}
+
+		byte[] header = entryHeader;
+		header[0] = type;
+		putInt(header, 1, recordId);
+		putInt(header, 5, version);
+		putLong(header, 9, lastModified);
+		putInt(header, ENTRY_LENGTH, numBytes);
+		crc.reset();
+		crc.update(header, 0, ENTRY_HEADER_SIZE);
+		map.position(logEnd);
+		map.put(header, 0, ENTRY_HEADER_SIZE);
+		if (numBytes > 0) {
+			crc.update(data, offset, numBytes);
+			map.put(data, offset, numBytes);
+		}
+		map.putInt((int) crc.getValue());
+
+		apply(type, recordId, logEnd, numBytes);
+		logEnd += entryLength;
+		this.version = version;
+		this.lastModified = lastModified;
+		writeHeader(0);
+		compactIfNeeded();
+	}
+
+	/**
+	 * Copy the record into the buffer.
+	 *
+	 * @return the record size, or -1 if there is no such record
+	 * @throws ArrayIndexOutOfBoundsException if the record does not fit into the buffer
+	 */
+	synchronized int read(int recordId, byte[] buffer, int offset) {
+		ensureIndex();
+		int position = offsets.get(recordId);
+		if (position < 0) {
+			return -1;
+		}
+		int size = map.getInt(position + ENTRY_LENGTH);
+		if (offset < 0 || offset + size > buffer.length) {
+			throw new ArrayIndexOutOfBoundsException();
+		}
+		map.position(position + ENTRY_HEADER_SIZE);
+		map.get(buffer, offset, size);
+		return size;
+	}
+
+	/**
+	 * @return the record size, or -1 if there is no such record
+	 */
+	synchronized int getRecordSize(int recordId) {
+		ensureIndex();
+		int position = offsets.get(recordId);
+		if (position < 0) {
+			return -1;
+		}
+		return map.getInt(position + ENTRY_LENGTH);
+	}
+
+	/**
+	 * @return the ids of all records, in ascending order
+	 */
+	synchronized int[] getRecordIds() {
+		ensureIndex();
+		return offsets.keys();
+	}
+
+	synchronized int getNumRecords() {
+		return count;
+	}
+
+	synchronized int getTotalSize() {
+		return totalSize;
+	}
+
+	synchronized int getLastRecordId() {
+		return lastRecordId;
+	}
+
+	synchronized int getVersion() {
+		return version;
+	}
+
+	synchronized long getLastModified() {
+		return lastModified;
+	}
+
+	private void compactIfNeeded() throws IOException {
+		if (logEnd > COMPACT_MIN_LENGTH && liveLength * 2 < logEnd - HEADER_SIZE) {
+			compact();
+		}
+	}
+
+	/**
+	 * Copy the live records to a new file and replace the log with it.
+	 */
+	synchronized void compact() throws IOException {
+		if (readOnly) {
+			throw new IOException("Record log opened read-only: " + file);
+		}
+		ensureIndex();
+		File temp = new File(file.getPath() + ".tmp");
+		RecordIndex newOffsets = new RecordIndex(offsets.size());
+		// live entries are written in id order
+		int[] ids = offsets.keys();
+		int newEnd = HEADER_SIZE;
+		try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+			out.setLength(0);
+			out.seek(HEADER_SIZE);
+			for (int recordId : ids) {
+				int position = offsets.get(recordId);
+				int entryLength = ENTRY_OVERHEAD + map.getInt(position + ENTRY_LENGTH);
+				byte[] entry = ensureBuffer(entryLength);
+				map.position(position);
+				map.get(entry, 0, entryLength);
+				out.write(entry, 0, entryLength);
+				newOffsets.put(recordId, newEnd);
+				newEnd += entryLength;
+			}
+			byte[] header = ensureBuffer(HEADER_SIZE);
+			Arrays.fill(header, 0, HEADER_SIZE, (byte) 0);
+			System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+			putInt(header, HEADER_FLAGS, FLAG_CLEAN);
+			putInt(header, HEADER_LAST_RECORD_ID, lastRecordId);
+			putInt(header, HEADER_COUNT, count);
+			putInt(header, HEADER_TOTAL_SIZE, totalSize);
+			putInt(header, HEADER_VERSION, version);
+			putLong(header, HEADER_LAST_MODIFIED, lastModified);
+			putInt(header, HEADER_LOG_END, newEnd);
+			putInt(header, HEADER_LIVE_LENGTH, liveLength);
+			out.seek(0);
+			out.write(header, 0, HEADER_SIZE);
+			out.getFD().sync();
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("Can't replace " + file);
+		}
+		Log.d(TAG, "Compacted " + file + " from " + logEnd + " to " + newEnd + " bytes");
+		raf.close();
+		raf = new RandomAccessFile(file, "rw");
+		map(newEnd);
+		offsets = newOffsets;
+		logEnd = newEnd;
+		dirty = false;
+	}
+
+	synchronized void close() throws IOException {
+		if (dirty) {
+			compactIfNeeded();
+		}
+		if (dirty) {
+			map.force();
+			writeHeader(FLAG_CLEAN);
+			map.force();
+			dirty = false;
+		}
+		raf.close();
+	}
+
+	private byte[] ensureBuffer(int size) {
+		if (buffer.length < size) {
+			buffer = new byte[Math.max(size, buffer.length * 2)];
+		}
+		return buffer;
+	}
+
+	private static void putInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+
+	private static void putLong(byte[] b, int offset, long value) {
+		putInt(b, offset, (int) (value >>> 32));
+		putInt(b, offset + 4, (int) value);
+	}
+}
@@ -30,9 +30,7 @@ import android.util.Log;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Vector;
+import java.util.Arrays;
 
 import javax.microedition.rms.InvalidRecordIDException;
 import javax.microedition.rms.RecordComparator;
@@ -57,7 +55,15 @@ public class RecordStoreImpl extends RecordStore {
 
 	private int size = 0;
 
-	private Hashtable<Integer, byte[]> records = new Hashtable<>();
+	/**
+	 * Written under the lock of the store, read without it by the manager
+	 */
+	private volatile int totalSize = 0;
+
+	/**
+	 * The manager keeps the last record id and the total size, no need to load the records for them
+	 */
+	private boolean stateRestored;
 
 	private String recordStoreName;
 
@@ -65,11 +71,30 @@ public class RecordStoreImpl extends RecordStore {
 
 	private long lastModified = 0;
 
-	private transient boolean open;
+	private transient volatile boolean open;
+
+	private transient int openCount;
+
+	/**
+	 * Serializes the changes of the store, held while they are written. The state is guarded by
+	 * the lock of the store, which is never held during I/O, so readers and other stores don't wait.
+	 */
+	private final transient Object writeLock = new Object();
 
 	private transient RecordStoreManager recordStoreManager;
 
-	private transient Vector<RecordListener> recordListeners = new Vector<>();
+	private static final ExtendedRecordListener[] NO_LISTENERS = new ExtendedRecordListener[0];
+
+	/**
+	 * Listeners of adds, changes and deletes, plain listeners wrapped on registration.
+	 * Copied on write, so events are dispatched without locking.
+	 */
+	private transient volatile ExtendedRecordListener[] recordListeners = NO_LISTENERS;
+
+	/**
+	 * The extended listeners, which also get the reads
+	 */
+	private transient volatile ExtendedRecordListener[] readListeners = NO_LISTENERS;
 
 	public RecordStoreImpl(RecordStoreManager recordStoreManager, String recordStoreName) {
 		this.recordStoreManager = recordStoreManager;
@@ -107,18 +132,6 @@ public class RecordStoreImpl extends RecordStore {
 		return size;
 	}
 
-	public void readRecord(DataInputStream dis)
-			throws IOException {
-		int recordId = dis.readInt();
-		if (recordId > lastRecordId) {
-			lastRecordId = recordId;
-		}
-		dis.readInt(); // TODO Tag
-		byte[] data = new byte[dis.readInt()];
-		dis.read(data, 0, data.length);
-		this.records.put(new Integer(recordId), data);
-	}
-
 	public void writeHeader(DataOutputStream dos)
 			throws IOException {
 		dos.write(fileIdentifier);
@@ -134,46 +147,113 @@ public class RecordStoreImpl extends RecordStore {
 		dos.writeInt(size);
 	}
 
-	public void writeRecord(DataOutputStream dos, int recordId)
-			throws IOException {
-		dos.writeInt(recordId);
-		dos.writeInt(0); // TODO Tag
-		try {
-			byte[] data = getRecord(recordId);
-			if (data == null) {
-				dos.writeInt(0);
-			} else {
-				dos.writeInt(data.length);
-				dos.write(data);
-			}
-		} catch (RecordStoreException e) {
-			throw new IOException();
-		}
+	String getNameInternal() {
+		return recordStoreName;
+	}
+
+	int getSizeInternal() {
+		return totalSize;
 	}
 
 	public boolean isOpen() {
 		return open;
 	}
 
-	public void setOpen(boolean open) {
+	public synchronized void setOpen(boolean open) {
 		this.open = open;
+		openCount = open ? 1 : 0;
 	}
 
-	@Override
-	public void closeRecordStore()
-			throws RecordStoreNotOpenException, RecordStoreException {
+	/**
+	 * Hand out the already open store once more, it stays open until closed as many times
+	 */
+	synchronized void retain() {
+		openCount++;
+	}
+
+	/**
+	 * Give up one reference to the store
+	 *
+	 * @return true if it was the last one and the store is now closed
+	 */
+	synchronized boolean release() throws RecordStoreNotOpenException {
 		if (!open) {
 			throw new RecordStoreNotOpenException();
 		}
+		if (--openCount > 0) {
+			return false;
+		}
+		open = false;
+		recordListeners = NO_LISTENERS;
+		readListeners = NO_LISTENERS;
+		return true;
+	}
 
-		if (recordListeners != null) {
-			recordListeners.removeAllElements();
+	/**
+	 * Wait for the change in progress, a closed store starts no new ones
+	 */
+	void awaitChanges() {
+		synchronized (writeLock) {
 		}
+	}
 
-		records.clear();
+	/**
+	 * Restore the state kept by the record store manager
+	 */
+	synchronized void setState(int lastRecordId, int size, int totalSize, int version, long lastModified) {
+		this.lastRecordId = lastRecordId;
+		this.size = size;
+		this.totalSize = totalSize;
+		this.version = version;
+		this.lastModified = lastModified;
+		stateRestored = true;
+	}
 
-		open = false;
-		Log.d(TAG, "RecordStore " + recordStoreName + " closed");
+	/**
+	 * Put back the state changed for a write that the storage refused, nothing of it was stored
+	 */
+	private synchronized void rollback(int lastRecordId, int size, int totalSize, int version, long lastModified) {
+		this.lastRecordId = lastRecordId;
+		this.size = size;
+		this.totalSize = totalSize;
+		this.version = version;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * The manager does not keep the last record id and the total size, get them from the records
+	 */
+	private void restoreState() throws RecordStoreException {
+		int[] ids = recordStoreManager.getRecordIds(this);
+		int total = 0;
+		for (int recordId : ids) {
+			total += Math.max(0, recordStoreManager.getRecordSize(this, recordId));
+		}
+		synchronized (this) {
+			if (ids.length > 0 && ids[ids.length - 1] > lastRecordId) {
+				lastRecordId = ids[ids.length - 1];
+			}
+			totalSize = total;
+			stateRestored = true;
+		}
+	}
+
+	/**
+	 * @return the ids of all records, in ascending order
+	 */
+	int[] getRecordIds() throws RecordStoreException {
+		if (!open) {
+			throw new RecordStoreNotOpenException();
+		}
+
+		return recordStoreManager.getRecordIds(this);
+	}
+
+	@Override
+	public void closeRecordStore()
+			throws RecordStoreNotOpenException, RecordStoreException {
+		// released by the manager, so an open of the same store either shares it or waits for the close
+		recordStoreManager.closeRecordStore(this);
 	}
 
 	@Override
@@ -217,23 +297,18 @@ public class RecordStoreImpl extends RecordStore {
 
 		// TODO include size overhead such as the data structures used to hold the state of the record store
 
-		// Preload all records
-		enumerateRecords(null, null, false);
-
-		int result = 0;
-		Enumeration keys = records.keys();
-		while (keys.hasMoreElements()) {
-			int key = (Integer) keys.nextElement();
+		if (!stateRestored) {
 			try {
-				byte[] data = getRecord(key);
-				if (data != null) {
-					result += data.length;
-				}
+				restoreState();
+			} catch (RecordStoreNotOpenException e) {
+				throw e;
 			} catch (RecordStoreException e) {
 				e.printStackTrace();
 			}
 		}
-		return result;
+		synchronized (this) {
+			return totalSize;
+		}
 	}
 
 	@Override
@@ -259,15 +334,56 @@ public class RecordStoreImpl extends RecordStore {
 	}
 
 	@Override
-	public void addRecordListener(RecordListener listener) {
-		if (!recordListeners.contains(listener)) {
-			recordListeners.addElement(listener);
+	public synchronized void addRecordListener(RecordListener listener) {
+		if (listener == null || indexOf(recordListeners, listener) >= 0) {
+			return;
+		}
+		if (listener instanceof ExtendedRecordListener) {
+			ExtendedRecordListener extended = (ExtendedRecordListener) listener;
+			recordListeners = add(recordListeners, extended);
+			readListeners = add(readListeners, extended);
+		} else {
+			recordListeners = add(recordListeners, new ListenerAdapter(listener));
 		}
 	}
 
 	@Override
-	public void removeRecordListener(RecordListener listener) {
-		recordListeners.removeElement(listener);
+	public synchronized void removeRecordListener(RecordListener listener) {
+		recordListeners = remove(recordListeners, listener);
+		readListeners = remove(readListeners, listener);
+	}
+
+	private static ExtendedRecordListener[] add(ExtendedRecordListener[] listeners, ExtendedRecordListener listener) {
+		ExtendedRecordListener[] result = Arrays.copyOf(listeners, listeners.length + 1);
+		result[listeners.length] = listener;
+		return result;
+	}
+
+	private static ExtendedRecordListener[] remove(ExtendedRecordListener[] listeners, RecordListener listener) {
+		int i = indexOf(listeners, listener);
+		if (i < 0) {
+			return listeners;
+		}
+		if (listeners.length == 1) {
+			return NO_LISTENERS;
+		}
+		ExtendedRecordListener[] result = new ExtendedRecordListener[listeners.length - 1];
+		System.arraycopy(listeners, 0, result, 0, i);
+		System.arraycopy(listeners, i + 1, result, i, result.length - i);
+		return result;
+	}
+
+	private static int indexOf(ExtendedRecordListener[] listeners, RecordListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			RecordListener l = listeners[i];
+			if (l instanceof ListenerAdapter) {
+				l = ((ListenerAdapter) l).listener;
+			}
+			if (l.equals(listener)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	@Override
@@ -277,8 +393,9 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreNotOpenException();
 		}
 
-		// lastRecordId needs to hold correct number, all records have to be preloaded
-		enumerateRecords(null, null, false);
+		if (!stateRestored) {
+			restoreState();
+		}
 
 		synchronized (this) {
 			return lastRecordId + 1;
@@ -298,28 +415,43 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreFullException();
 		}
 
-		// lastRecordId needs to hold correct number, all records have to be preloaded
-		enumerateRecords(null, null, false);
-
-		byte[] recordData = new byte[numBytes];
-		if (data != null) {
-			System.arraycopy(data, offset, recordData, 0, numBytes);
+		if (data != null && (offset < 0 || numBytes < 0 || offset + numBytes > data.length)) {
+			throw new ArrayIndexOutOfBoundsException();
 		}
 
-		int nextRecordID = getNextRecordID();
-		synchronized (this) {
-			records.put(new Integer(nextRecordID), recordData);
-			version++;
-			lastModified = System.currentTimeMillis();
-			lastRecordId++;
-			size++;
+		if (!stateRestored) {
+			restoreState();
 		}
 
-		recordStoreManager.saveRecord(this, nextRecordID);
+		int nextRecordID;
+		synchronized (writeLock) {
+			// the manager stores the new version with the record, so it is set before the write
+			int oldLastRecordId, oldSize, oldTotalSize, oldVersion;
+			long oldLastModified;
+			synchronized (this) {
+				oldLastRecordId = lastRecordId;
+				oldSize = size;
+				oldTotalSize = totalSize;
+				oldVersion = version;
+				oldLastModified = lastModified;
+				nextRecordID = ++lastRecordId;
+				version++;
+				lastModified = System.currentTimeMillis();
+				size++;
+				totalSize += numBytes;
+			}
+
+			try {
+				// the data goes straight from the caller's array to the storage
+				recordStoreManager.saveRecord(this, nextRecordID, data, offset, numBytes);
+			} catch (RecordStoreException | RuntimeException e) {
+				rollback(oldLastRecordId, oldSize, oldTotalSize, oldVersion, oldLastModified);
+				throw e;
+			}
+		}
 
 		fireRecordListener(ExtendedRecordListener.RECORD_ADD, nextRecordID);
 
-		Log.d(TAG, "Record " + recordStoreName + "." + nextRecordID + " added");
 		return nextRecordID;
 	}
 
@@ -330,19 +462,32 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreNotOpenException();
 		}
 
-		synchronized (this) {
+		synchronized (writeLock) {
 			// throws InvalidRecordIDException when no record found
-			getRecord(recordId);
-			records.remove(new Integer(recordId));
-			version++;
-			lastModified = System.currentTimeMillis();
-			size--;
-		}
+			int recordSize = getRecordSize(recordId);
+			int oldLastRecordId, oldSize, oldTotalSize, oldVersion;
+			long oldLastModified;
+			synchronized (this) {
+				oldLastRecordId = lastRecordId;
+				oldSize = size;
+				oldTotalSize = totalSize;
+				oldVersion = version;
+				oldLastModified = lastModified;
+				version++;
+				lastModified = System.currentTimeMillis();
+				size--;
+				totalSize -= recordSize;
+			}
 
-		recordStoreManager.deleteRecord(this, recordId);
+			try {
+				recordStoreManager.deleteRecord(this, recordId);
+			} catch (RecordStoreException | RuntimeException e) {
+				rollback(oldLastRecordId, oldSize, oldTotalSize, oldVersion, oldLastModified);
+				throw e;
+			}
+		}
 
 		fireRecordListener(ExtendedRecordListener.RECORD_DELETE, recordId);
-		Log.d(TAG, "Record " + recordStoreName + "." + recordId + " deleted");
 	}
 
 	@Override
@@ -352,29 +497,23 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreNotOpenException();
 		}
 
-		synchronized (this) {
-			byte[] data = records.get(new Integer(recordId));
-			if (data == null) {
-				recordStoreManager.loadRecord(this, recordId);
-				data = records.get(new Integer(recordId));
-				if (data == null) {
-					throw new InvalidRecordIDException();
-				}
-			}
-
-			return data.length;
+		int recordSize = recordStoreManager.getRecordSize(this, recordId);
+		if (recordSize < 0) {
+			throw new InvalidRecordIDException();
 		}
+		return recordSize;
 	}
 
 	@Override
 	public int getRecord(int recordId, byte[] buffer, int offset)
 			throws RecordStoreNotOpenException, InvalidRecordIDException, RecordStoreException {
-		int recordSize;
-		synchronized (this) {
-			recordSize = getRecordSize(recordId);
-			System.arraycopy(records.get(new Integer(recordId)), 0, buffer, offset, recordSize);
+		if (!open) {
+			throw new RecordStoreNotOpenException();
 		}
 
+		// copied straight from the storage
+		int recordSize = recordStoreManager.readRecord(this, recordId, buffer, offset);
+
 		fireRecordListener(ExtendedRecordListener.RECORD_READ, recordId);
 
 		return recordSize;
@@ -388,13 +527,28 @@ public class RecordStoreImpl extends RecordStore {
 		}
 
 		byte[] data;
-
-		synchronized (this) {
-			data = new byte[getRecordSize(recordId)];
-			getRecord(recordId, data, 0);
+		while (true) {
+			int recordSize = recordStoreManager.getRecordSize(this, recordId);
+			if (recordSize < 0) {
+				throw new InvalidRecordIDException();
+			}
+			if (recordSize == 0) {
+				data = null;
+				break;
+			}
+			data = new byte[recordSize];
+			try {
+				if (recordStoreManager.readRecord(this, recordId, data, 0) == recordSize) {
+					break;
+				}
+			} catch (ArrayIndexOutOfBoundsException e) {
+				// grown by another thread since the size was read
+			}
 		}
 
-		return data.length < 1 ? null : data;
+		fireRecordListener(ExtendedRecordListener.RECORD_READ, recordId);
+
+		return data;
 	}
 
 	@Override
@@ -404,26 +558,43 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreNotOpenException();
 		}
 
-		// FIXME fixit
-		if (numBytes > recordStoreManager.getSizeAvailable(this)) {
+		// the record is replaced, only the growth has to fit
+		if (numBytes - getRecordSize(recordId) > recordStoreManager.getSizeAvailable(this)) {
 			throw new RecordStoreFullException();
 		}
 
-		byte[] recordData = new byte[numBytes];
-		System.arraycopy(newData, offset, recordData, 0, numBytes);
+		if (newData == null && numBytes > 0) {
+			throw new NullPointerException();
+		}
+		if (newData != null && (offset < 0 || numBytes < 0 || offset + numBytes > newData.length)) {
+			throw new ArrayIndexOutOfBoundsException();
+		}
 
-		synchronized (this) {
+		synchronized (writeLock) {
 			// throws InvalidRecordIDException when no record found
-			getRecord(recordId);
-			records.put(new Integer(recordId), recordData);
-			version++;
-			lastModified = System.currentTimeMillis();
-		}
+			int recordSize = getRecordSize(recordId);
+			int oldLastRecordId, oldSize, oldTotalSize, oldVersion;
+			long oldLastModified;
+			synchronized (this) {
+				oldLastRecordId = lastRecordId;
+				oldSize = size;
+				oldTotalSize = totalSize;
+				oldVersion = version;
+				oldLastModified = lastModified;
+				version++;
+				lastModified = System.currentTimeMillis();
+				totalSize += numBytes - recordSize;
+			}
 
-		recordStoreManager.saveRecord(this, recordId);
+			try {
+				recordStoreManager.saveRecord(this, recordId, newData, offset, numBytes);
+			} catch (RecordStoreException | RuntimeException e) {
+				rollback(oldLastRecordId, oldSize, oldTotalSize, oldVersion, oldLastModified);
+				throw e;
+			}
+		}
 
 		fireRecordListener(ExtendedRecordListener.RECORD_CHANGE, recordId);
-		Log.d(TAG, "Record " + recordStoreName + "." + recordId + " set");
 	}
 
 	@Override
@@ -438,27 +609,55 @@ public class RecordStoreImpl extends RecordStore {
 	}
 
 	private void fireRecordListener(int type, int recordId) {
+		ExtendedRecordListener[] listeners =
+				type == ExtendedRecordListener.RECORD_READ ? readListeners : recordListeners;
+		if (listeners.length == 0) {
+			return;
+		}
 		long timestamp = System.currentTimeMillis();
+		for (ExtendedRecordListener l : listeners) {
+			l.recordEvent(type, timestamp, this, recordId);
+		}
+	}
 
-		if (recordListeners != null) {
-			for (Enumeration e = recordListeners.elements(); e.hasMoreElements(); ) {
-				RecordListener l = (RecordListener) e.nextElement();
-				if (l instanceof ExtendedRecordListener) {
-					((ExtendedRecordListener) l).recordEvent(type, timestamp, this, recordId);
-				} else {
-					switch (type) {
-						case ExtendedRecordListener.RECORD_ADD:
-							l.recordAdded(this, recordId);
-							break;
-						case ExtendedRecordListener.RECORD_CHANGE:
-							l.recordChanged(this, recordId);
-							break;
-						case ExtendedRecordListener.RECORD_DELETE:
-							l.recordDeleted(this, recordId);
-					}
-				}
+	/**
+	 * Delivers the events to a plain {@link RecordListener}, which is not told about reads
+	 */
+	private static final class ListenerAdapter implements ExtendedRecordListener {
+		final RecordListener listener;
+
+		ListenerAdapter(RecordListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void recordEvent(int type, long timestamp, RecordStore recordStore, int recordId) {
+			switch (type) {
+				case RECORD_ADD:
+					listener.recordAdded(recordStore, recordId);
+					break;
+				case RECORD_CHANGE:
+					listener.recordChanged(recordStore, recordId);
+					break;
+				case RECORD_DELETE:
+					listener.recordDeleted(recordStore, recordId);
 			}
 		}
+
+		@Override
+		public void recordAdded(RecordStore recordStore, int recordId) {
+			listener.recordAdded(recordStore, recordId);
+		}
+
+		@Override
+		public void recordChanged(RecordStore recordStore, int recordId) {
+			listener.recordChanged(recordStore, recordId);
+		}
+
+		@Override
+		public void recordDeleted(RecordStore recordStore, int recordId) {
+			listener.recordDeleted(recordStore, recordId);
+		}
 	}
 
 }
@@ -42,15 +42,40 @@ public interface RecordStoreManager {
 
 	String[] listRecordStores();
 
-	void loadRecord(RecordStoreImpl recordStoreImpl, int recordId)
+	/**
+	 * @return the size of the record, or -1 if there is no such record
+	 */
+	int getRecordSize(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreNotOpenException, RecordStoreException;
+
+	/**
+	 * Copy the record into the buffer.
+	 *
+	 * @return the size of the record
+	 */
+	int readRecord(RecordStoreImpl recordStoreImpl, int recordId, byte[] buffer, int offset)
 			throws RecordStoreNotOpenException, InvalidRecordIDException, RecordStoreException;
 
+	/**
+	 * @return the ids of all records, in ascending order
+	 */
+	int[] getRecordIds(RecordStoreImpl recordStoreImpl)
+			throws RecordStoreNotOpenException, RecordStoreException;
+
 	void deleteRecord(RecordStoreImpl recordStoreImpl, int recordId)
 			throws RecordStoreNotOpenException, RecordStoreException;
 
-	void saveRecord(RecordStoreImpl recordStoreImpl, int recordId)
+	/**
+	 * Write the record, the data is not kept after the call returns.
+	 *
+	 * @param data the record data, may be null if numBytes is 0
+	 */
+	void saveRecord(RecordStoreImpl recordStoreImpl, int recordId, byte[] data, int offset, int numBytes)
 			throws RecordStoreNotOpenException, RecordStoreException;
 
+	void closeRecordStore(RecordStoreImpl recordStoreImpl)
+			throws RecordStoreException;
+
 	int getSizeAvailable(RecordStoreImpl recordStoreImpl);
 
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Single file snapshot of all record stores of a MIDlet, to move its saves between devices.
+ * <p>
+ * The file starts with {@link #MAGIC} and the flags, followed by the body, deflated if
+ * {@link #FLAG_DEFLATE} is set. The body is a sequence of stores, each one a
+ * {@link #TAG_STORE} byte, the name, the last record id, version, time of the last change
+ * and the record count, followed by the records as id, length and data. It ends with
+ * {@link #TAG_END} and the CRC32 of everything in the body before it.
+ * <p>
+ * Both directions stream one record at a time. The export opens the logs read-only and never
+ * repairs them. An import is written next to the stores first and replaces them only when
+ * the whole snapshot has been read and its checksum matches. The MIDlet must not be running,
+ * its process would keep writing the logs it has mapped.
+ */
+public final class RecordStoreSnapshot {
+	private static final String TAG = RecordStoreSnapshot.class.getName();
+
+	public static final String SUFFIX = ".rms";
+
+	private static final byte[] MAGIC = {0x4d, 0x49, 0x44, 0x52, 0x4d, 0x53, 0x53, 0x01};
+
+	public static final int FLAG_DEFLATE = 1;
+
+	private static final byte TAG_END = 0;
+	private static final byte TAG_STORE = 1;
+
+	private static final String TEMP_SUFFIX = ".import";
+
+	/**
+	 * More than any MIDlet stores in a record, guards the import against a damaged length
+	 */
+	private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+	private RecordStoreSnapshot() {
+	}
+
+	/**
+	 * Write the record stores of the directory to the stream, which is left open
+	 *
+	 * @param flags {@link #FLAG_DEFLATE} to compress the records
+	 * @return the number of stores written
+	 */
+	public static int export(File dir, OutputStream out, int flags) throws IOException {
+		// converts the stores left in the legacy format
+		String[] names = new LogRecordStoreManager(dir).listRecordStores();
+		if (names == null) {
+			names = new String[0];
+		}
+		Arrays.sort(names);
+
+		BufferedOutputStream buffered = new BufferedOutputStream(out);
+		buffered.write(MAGIC);
+		new DataOutputStream(buffered).writeInt(flags);
+		Deflater deflater = null;
+		OutputStream body = buffered;
+		if ((flags & FLAG_DEFLATE) != 0) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			body = new DeflaterOutputStream(buffered, deflater);
+		}
+		try {
+			CRC32 crc = new CRC32();
+			DataOutputStream dos = new DataOutputStream(new CheckedOutputStream(body, crc));
+			byte[] buffer = new byte[256];
+			for (String name : names) {
+				RecordLog log = RecordLog.openReadOnly(new File(dir, name + RecordLog.SUFFIX));
+				try {
+					int[] ids = log.getRecordIds();
+					dos.writeByte(TAG_STORE);
+					dos.writeUTF(name);
+					dos.writeInt(log.getLastRecordId());
+					dos.writeInt(log.getVersion());
+					dos.writeLong(log.getLastModified());
+					dos.writeInt(ids.length);
+					for (int recordId : ids) {
+						int size = log.getRecordSize(recordId);
+						if (buffer.length < size) {
+							buffer = new byte[Math.max(size, buffer.length * 2)];
+						}
+						log.read(recordId, buffer, 0);
+						dos.writeInt(recordId);
+						dos.writeInt(size);
+						dos.write(buffer, 0, size);
+					}
+				} finally {
+					log.close();
+				}
+			}
+			dos.writeByte(TAG_END);
+			// not covered by itself, so written past the checked stream
+			new DataOutputStream(body).writeInt((int) crc.getValue());
+			if (deflater != null) {
+				((DeflaterOutputStream) body).finish();
+			}
+			buffered.flush();
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		Log.d(TAG, "Exported " + names.length + " record stores of " + dir);
+		return names.length;
+	}
+
+	/**
+	 * Replace the record stores of the directory with the ones read from the stream,
+	 * which is left open. The stores are kept as they were if the snapshot is broken.
+	 *
+	 * @return the number of stores imported
+	 */
+	public static int restore(File dir, InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in);
+		DataInputStream header = new DataInputStream(buffered);
+		byte[] magic = new byte[MAGIC.length];
+		header.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a record store snapshot");
+		}
+		int flags = header.readInt();
+		Inflater inflater = null;
+		InputStream body = buffered;
+		if ((flags & FLAG_DEFLATE) != 0) {
+			inflater = new Inflater();
+			body = new InflaterInputStream(buffered, inflater);
+		}
+
+		dir.mkdirs();
+		List<String> names = new ArrayList<>();
+		try {
+			CRC32 crc = new CRC32();
+			DataInputStream dis = new DataInputStream(new CheckedInputStream(body, crc));
+			byte[] buffer = new byte[256];
+			byte tag;
+			while ((tag = dis.readByte()) == TAG_STORE) {
+				String name = dis.readUTF();
+				if (name.isEmpty() || name.length() > 32 || names.contains(name)
+						|| name.indexOf('/') >= 0 || name.equals(".") || name.equals("..")) {
+					throw new IOException("Invalid record store name " + name);
+				}
+				names.add(name);
+				int lastRecordId = dis.readInt();
+				int version = dis.readInt();
+				long lastModified = dis.readLong();
+				int count = dis.readInt();
+				File temp = new File(dir, name + RecordLog.SUFFIX + TEMP_SUFFIX);
+				temp.delete();
+				RecordLog log = RecordLog.open(temp);
+				try {
+					for (int i = 0; i < count; i++) {
+						int recordId = dis.readInt();
+						int size = dis.readInt();
+						if (recordId <= 0 || recordId > lastRecordId || size < 0 || size > MAX_RECORD_SIZE) {
+							throw new IOException("Invalid record " + recordId + " in " + name);
+						}
+						if (buffer.length < size) {
+							buffer = new byte[Math.max(size, buffer.length * 2)];
+						}
+						dis.readFully(buffer, 0, size);
+						log.put(recordId, buffer, 0, size, version, lastModified);
+					}
+					if (log.getLastRecordId() < lastRecordId) {
+						// keeps the ids of the deleted records from being handed out again
+						log.delete(lastRecordId, version, lastModified);
+					}
+				} finally {
+					log.close();
+				}
+			}
+			if (tag != TAG_END) {
+				throw new IOException("Invalid snapshot entry " + tag);
+			}
+			int expected = (int) crc.getValue();
+			if (new DataInputStream(body).readInt() != expected) {
+				throw new IOException("Snapshot checksum mismatch");
+			}
+		} catch (IOException | RuntimeException e) {
+			for (String name : names) {
+				new File(dir, name + RecordLog.SUFFIX + TEMP_SUFFIX).delete();
+			}
+			throw e;
+		} finally {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+
+		replace(dir, names);
+		Log.d(TAG, "Imported " + names.size() + " record stores to " + dir);
+		return names.size();
+	}
+
+	/**
+	 * Move the imported logs in place and delete the stores that are not in the snapshot
+	 */
+	private static void replace(File dir, List<String> names) throws IOException {
+		Set<String> imported = new HashSet<>();
+		for (String name : names) {
+			File log = new File(dir, name + RecordLog.SUFFIX);
+			File temp = new File(dir, log.getName() + TEMP_SUFFIX);
+			log.delete();
+			if (!temp.renameTo(log)) {
+				throw new IOException("Can't rename " + temp);
+			}
+			imported.add(log.getName());
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (!imported.contains(name) && (name.endsWith(RecordLog.SUFFIX)
+						|| name.endsWith(LogRecordStoreManager.LEGACY_HEADER_SUFFIX)
+						|| name.endsWith(LogRecordStoreManager.LEGACY_RECORD_SUFFIX))) {
+					file.delete();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Write-behind journal of the record logs.
+ * <p>
+ * When enabled, record writes and deletes are acknowledged as soon as they are queued here,
+ * and written to their {@link RecordLog} by a background thread {@link #FLUSH_DELAY} ms after
+ * the first queued change. Repeated writes of the same record before the flush replace each
+ * other, so a MIDlet saving its state every frame costs one log entry per flush.
+ * <p>
+ * Each log has its own queue. A flush takes the queued changes out of it and writes them without
+ * holding its lock, readers find them among the changes being written until the write is done.
+ * If the write fails, the changes it did not get to go back into the queue, unless a newer
+ * change of the same record was queued meanwhile, and the flush is retried later. Once the flushes
+ * of a log have failed {@link #MAX_FAILURES} times in a row, new changes of it are refused with
+ * a {@link RecordStoreException} until a flush succeeds again, so the MIDlet learns that its
+ * saves are not being stored.
+ * <p>
+ * The journal is flushed when a store is closed, when the MIDlet is paused or destroyed,
+ * and by a shutdown hook. A process killed by the system in between loses at most the changes
+ * of the last {@link #FLUSH_DELAY} ms, the logs themselves stay consistent.
+ */
+public final class WriteBehindJournal {
+	private static final String TAG = WriteBehindJournal.class.getName();
+
+	private static final long FLUSH_DELAY = 1000;
+	private static final int MAX_FAILURES = 3;
+
+	private static volatile boolean enabled;
+
+	private static final ConcurrentHashMap<RecordLog, Queue> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * Wakes up the flusher
+	 */
+	private static final Object lock = new Object();
+
+	private static boolean changed;
+
+	private static Thread flusher;
+
+	private WriteBehindJournal() {
+	}
+
+	/**
+	 * A queued record write, or a delete if the data is null
+	 */
+	static final class Entry {
+		final byte[] data;
+		final int version;
+		final long lastModified;
+
+		Entry(byte[] data, int version, long lastModified) {
+			this.data = data;
+			this.version = version;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Changes of one log by record id, guarded by the queue
+	 */
+	private static final class Queue {
+		SparseArray<Entry> pending = new SparseArray<>();
+
+		/**
+		 * The changes taken by the flush in progress, null if there is none
+		 */
+		SparseArray<Entry> writing;
+
+		/**
+		 * Keeps the flushes of the log in order
+		 */
+		final Object flushLock = new Object();
+
+		/**
+		 * Flushes failed in a row, and the error of the last one
+		 */
+		int failures;
+		Exception error;
+
+		Entry get(int recordId) {
+			Entry entry = pending.get(recordId);
+			if (entry == null && writing != null) {
+				entry = writing.get(recordId);
+			}
+			return entry;
+		}
+	}
+
+	public static void setEnabled(boolean enabled) {
+		// cleared first, so that no change is queued behind the final flush
+		WriteBehindJournal.enabled = enabled;
+		if (!enabled) {
+			flushAll();
+		}
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Queue a record write. The data is kept by reference and must not be changed afterwards.
+	 */
+	static void put(RecordLog log, int recordId, byte[] data, int version, long lastModified)
+			throws RecordStoreException {
+		queue(log, recordId, new Entry(data, version, lastModified));
+	}
+
+	static void delete(RecordLog log, int recordId, int version, long lastModified)
+			throws RecordStoreException {
+		queue(log, recordId, new Entry(null, version, lastModified));
+	}
+
+	private static void queue(RecordLog log, int recordId, Entry entry) throws RecordStoreException {
+		Queue queue = queues.get(log);
+		if (queue == null) {
+			queue = new Queue();
+			Queue existing = queues.putIfAbsent(log, queue);
+			if (existing != null) {
+				queue = existing;
+			}
+		}
+		boolean first;
+		synchronized (queue) {
+			if (queue.failures >= MAX_FAILURES) {
+				throw new RecordStoreException("Write-behind flush failed " + queue.failures
+						+ " times: " + queue.error);
+			}
+			first = queue.pending.size() == 0;
+			queue.pending.put(recordId, entry);
+		}
+		if (first) {
+			scheduleFlush();
+		}
+	}
+
+	private static void scheduleFlush() {
+		synchronized (lock) {
+			if (flusher == null) {
+				startFlusher();
+			}
+			changed = true;
+			lock.notify();
+		}
+	}
+
+	/**
+	 * @return the queued change of the record, or null if there is none
+	 */
+	static Entry get(RecordLog log, int recordId) {
+		Queue queue = queues.get(log);
+		if (queue == null) {
+			return null;
+		}
+		synchronized (queue) {
+			return queue.get(recordId);
+		}
+	}
+
+	/**
+	 * Apply the queued adds and deletes to the record ids of the log
+	 *
+	 * @param ids the ids in the log, in ascending order
+	 * @return the ids including the queued changes, in ascending order
+	 */
+	static int[] mergeRecordIds(RecordLog log, int[] ids) {
+		Queue queue = queues.get(log);
+		if (queue == null) {
+			return ids;
+		}
+		SparseArray<Entry> entries;
+		synchronized (queue) {
+			if (queue.pending.size() == 0 && queue.writing == null) {
+				return ids;
+			}
+			entries = new SparseArray<>();
+			if (queue.writing != null) {
+				putAll(entries, queue.writing);
+			}
+			putAll(entries, queue.pending);
+		}
+		int[] result = new int[ids.length + entries.size()];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < ids.length || j < entries.size()) {
+			int recordId;
+			boolean deleted = false;
+			if (j == entries.size() || i < ids.length && ids[i] < entries.keyAt(j)) {
+				recordId = ids[i++];
+			} else {
+				recordId = entries.keyAt(j);
+				deleted = entries.valueAt(j++).data == null;
+				if (i < ids.length && ids[i] == recordId) {
+					i++;
+				}
+			}
+			if (!deleted) {
+				result[count++] = recordId;
+			}
+		}
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	private static void putAll(SparseArray<Entry> to, SparseArray<Entry> from) {
+		for (int i = 0; i < from.size(); i++) {
+			to.put(from.keyAt(i), from.valueAt(i));
+		}
+	}
+
+	/**
+	 * Write the queued changes of the log and forget it, before it is closed.
+	 * If the write fails the log is kept for the flusher to retry, and must be left open.
+	 */
+	static void close(RecordLog log) throws IOException {
+		Queue queue = queues.remove(log);
+		if (queue != null) {
+			try {
+				flush(log, queue);
+			} catch (IOException | RuntimeException e) {
+				queues.put(log, queue);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Write the queued changes of the log, before it is written directly with the journal disabled
+	 */
+	static void flush(RecordLog log) throws IOException {
+		Queue queue = queues.get(log);
+		if (queue != null) {
+			flush(log, queue);
+		}
+	}
+
+	/**
+	 * Write the queued changes of all logs, errors are logged
+	 */
+	public static void flushAll() {
+		for (Map.Entry<RecordLog, Queue> e : queues.entrySet()) {
+			try {
+				flush(e.getKey(), e.getValue());
+			} catch (IOException ex) {
+				Log.e(TAG, "Write-behind flush failed, will retry", ex);
+			}
+		}
+	}
+
+	private static void flush(RecordLog log, Queue queue) throws IOException {
+		synchronized (queue.flushLock) {
+			SparseArray<Entry> entries;
+			synchronized (queue) {
+				if (queue.pending.size() == 0) {
+					return;
+				}
+				entries = queue.pending;
+				queue.pending = new SparseArray<>();
+				queue.writing = entries;
+			}
+			int[] order = order(entries);
+			int written = 0;
+			try {
+				for (; written < order.length; written++) {
+					write(log, entries.keyAt(order[written]), entries.valueAt(order[written]));
+				}
+			} catch (IOException | RuntimeException e) {
+				synchronized (queue) {
+					// in the same step as clearing writing, readers must find them in one of the two
+					for (int i = written; i < order.length; i++) {
+						int recordId = entries.keyAt(order[i]);
+						if (queue.pending.indexOfKey(recordId) < 0) {
+							queue.pending.put(recordId, entries.valueAt(order[i]));
+						}
+					}
+					queue.writing = null;
+					queue.failures++;
+					queue.error = e;
+				}
+				scheduleFlush();
+				throw e;
+			}
+			synchronized (queue) {
+				queue.writing = null;
+				queue.failures = 0;
+				queue.error = null;
+			}
+		}
+	}
+
+	/**
+	 * The entries go in id order, except the latest change which is written last
+	 * to leave its version and time in the log header.
+	 *
+	 * @return the indexes of the entries in the order they are written
+	 */
+	private static int[] order(SparseArray<Entry> entries) {
+		int latest = 0;
+		for (int i = 1; i < entries.size(); i++) {
+			if (entries.valueAt(i).version > entries.valueAt(latest).version) {
+				latest = i;
+			}
+		}
+		int[] order = new int[entries.size()];
+		int count = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			if (i != latest) {
+				order[count++] = i;
+			}
+		}
+		order[count] = latest;
+		return order;
+	}
+
+	private static void write(RecordLog log, int recordId, Entry entry) throws IOException {
+		if (entry.data == null) {
+			log.delete(recordId, entry.version, entry.lastModified);
+		} else {
+			log.put(recordId, entry.data, 0, entry.data.length, entry.version, entry.lastModified);
+		}
+	}
+
+	private static void startFlusher() {
+		flusher = new Thread(() -> {
+			try {
+				while (true) {
+					synchronized (lock) {
+						while (!changed) {
+							lock.wait();
+						}
+						changed = false;
+					}
+					// let the changes of the next frames coalesce with this one
+					Thread.sleep(FLUSH_DELAY);
+					flushAll();
+				}
+			} catch (InterruptedException e) {
+				Log.w(TAG, "Write-behind flusher interrupted");
+			}
+		}, "MIDletRmsFlush");
+		flusher.setDaemon(true);
+		flusher.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(WriteBehindJournal::flushAll));
+	}
+}
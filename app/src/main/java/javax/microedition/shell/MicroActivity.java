@@ -53,6 +53,7 @@ import javax.microedition.lcdui.pointer.FixedKeyboard;
 import javax.microedition.lcdui.pointer.VirtualKeyboard;
 import javax.microedition.midlet.MIDlet;
 import javax.microedition.util.ContextHolder;
+import javax.microedition.util.MethodCounters;
 
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AlertDialog;
@@ -375,6 +376,7 @@ public class MicroActivity extends AppCompatActivity {
 			menu.clear();
 			MenuInflater inflater = getMenuInflater();
 			inflater.inflate(R.menu.midlet_displayable, menu);
+			menu.findItem(R.id.action_hot_methods).setVisible(MethodCounters.isEnabled());
 			if (current instanceof Canvas) {
 				Menu group = menu;
 				inflater.inflate(R.menu.midlet_canvas_no_keys, group);
@@ -406,6 +408,8 @@ public class MicroActivity extends AppCompatActivity {
 					takeScreenshot();
 				} else if (id == R.id.action_save_log) {
 					saveLog();
+				} else if (id == R.id.action_hot_methods) {
+					showHotMethods();
 				} else if (ContextHolder.getVk() != null) {
 					// Handled only when virtual keyboard is enabled
 					handleVkOptions(id);
@@ -480,6 +484,15 @@ public class MicroActivity extends AppCompatActivity {
 		}
 	}
 
+	private void showHotMethods() {
+		AlertDialog.Builder builder = new AlertDialog.Builder(this)
+				.setTitle(R.string.hot_methods)
+				.setMessage(MethodCounters.getReport(MethodCounters.HOT_METHODS_COUNT))
+				.setPositiveButton(android.R.string.ok, null)
+				.setNeutralButton(R.string.reset_counters, (dialogInterface, i) -> MethodCounters.reset());
+		builder.show();
+	}
+
 	private void showHideButtonDialog() {
 		final VirtualKeyboard vk = ContextHolder.getVk();
 		AlertDialog.Builder builder = new AlertDialog.Builder(this)
@@ -35,6 +35,7 @@ import javax.microedition.lcdui.Display;
 import javax.microedition.m3g.Graphics3D;
 import javax.microedition.midlet.MIDlet;
 import javax.microedition.util.ContextHolder;
+import javax.microedition.util.MethodCounters;
 
 import io.reactivex.Single;
 import com.deadlinegamedev.chaoscampus.config.Config;
@@ -95,6 +96,7 @@ public class MicroLoader {
 		File dexTarget = new File(dexTargetDir, Config.MIDLET_DEX_FILE);
 		FileUtils.copyFileUsingChannel(dexSource, dexTarget);
 		File resDir = new File(path, Config.MIDLET_RES_DIR);
+		MethodCounters.load(new File(path, Config.MIDLET_METHODS_FILE), dexSource);
 		ClassLoader loader = new MyClassLoader(dexTarget.getAbsolutePath(),
 				dexTargetOptDir.getAbsolutePath(), context.getClassLoader(), resDir);
 		Log.i(TAG, "loadMIDletList main: " + mainClass + " from dex:" + dexTarget.getPath());
@@ -35,6 +35,7 @@ import java.io.InputStream;
 import java.util.zip.ZipEntry;
 
 import javax.microedition.lcdui.pointer.VirtualKeyboard;
+import javax.microedition.rms.impl.WriteBehindJournal;
 import javax.microedition.shell.MyClassLoader;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -165,6 +166,8 @@ public class ContextHolder {
 	 * Kill midlet process.
 	 */
 	public static void notifyDestroyed() {
+		// killing the process skips the shutdown hooks
+		WriteBehindJournal.flushAll();
 		currentActivity.finish();
 		Process.killProcess(Process.myPid());
 	}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import java.util.Locale;
+
+/**
+ * Histogram of durations with power-of-two buckets.
+ * <p>
+ * Bucket n counts the durations from 2^(n-1) to 2^n - 1 microseconds,
+ * which is precise enough to read off percentiles of frame and input latencies
+ * without keeping every sample.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 32;
+
+	private final String name;
+	private final long[] buckets = new long[BUCKETS];
+	private long count;
+	private long sum;
+	private long max;
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Add a sample.
+	 *
+	 * @param nanos the duration in nanoseconds, negative values are counted as zero
+	 */
+	public synchronized void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		buckets[Math.min(bucket, BUCKETS - 1)]++;
+		count++;
+		sum += micros;
+		if (micros > max) {
+			max = micros;
+		}
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = 0;
+		}
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean in microseconds
+	 */
+	public synchronized long getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * @return the maximum in microseconds
+	 */
+	public synchronized long getMax() {
+		return max;
+	}
+
+	/**
+	 * @param percentile the percentile from 0 to 100
+	 * @return the upper bound of the bucket holding the percentile, in microseconds
+	 */
+	public synchronized long getPercentile(int percentile) {
+		long target = (count * percentile + 99) / 100;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if (seen >= target && seen > 0) {
+				return Math.min((1L << i) - 1, max);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "%s: n=%d mean=%.2fms p50<=%.2fms p90<=%.2fms p99<=%.2fms max=%.2fms",
+				name, count, getMean() / 1000f, getPercentile(50) / 1000f,
+				getPercentile(90) / 1000f, getPercentile(99) / 1000f, max / 1000f);
+	}
+
+	/**
+	 * Write the bucket counts as tab-separated lines of upper bound (us) and count.
+	 */
+	public synchronized void dump(StringBuilder out) {
+		out.append("# ").append(toString()).append('\n');
+		for (int i = 0; i < BUCKETS; i++) {
+			if (buckets[i] != 0) {
+				out.append((1L << i) - 1).append('\t').append(buckets[i]).append('\n');
+			}
+		}
+	}
+}
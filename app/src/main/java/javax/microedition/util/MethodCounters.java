@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-method invocation counters of an instrumented MIDlet.
+ * <p>
+ * When enabled at conversion time every MIDlet method gets an id, and code incrementing
+ * {@code counts[id]} (and adding the time spent in the method to {@code times[id]} if timing
+ * was requested) is injected on method entry and exit. The id table is stored next to the dex
+ * file and loaded before the MIDlet classes, so the arrays are allocated once and the injected
+ * code is a plain array access.
+ * <p>
+ * The counters are not synchronized: concurrent invocations of a method may occasionally lose
+ * an increment, which does not matter for finding the hot ones. Times are inclusive, that is
+ * the time of a method contains the time of its callees, and are not counted when the method
+ * is left by an exception thrown from a callee.
+ */
+public final class MethodCounters {
+	private static final String TAG = MethodCounters.class.getName();
+
+	public static final String MODE_OFF = "off";
+	public static final String MODE_COUNT = "count";
+	public static final String MODE_TIME = "time";
+
+	/**
+	 * Number of methods in the hot method reports
+	 */
+	public static final int HOT_METHODS_COUNT = 30;
+
+	/**
+	 * Type descriptor of this class, present in the string table of an instrumented dex
+	 */
+	private static final byte[] INSTRUMENTED_MARKER =
+			"Ljavax/microedition/util/MethodCounters;".getBytes(Charset.forName("US-ASCII"));
+
+	/**
+	 * Accessed directly from the instrumented MIDlet code
+	 */
+	public static long[] counts;
+	public static long[] times;
+
+	private static String[] names;
+
+	private MethodCounters() {
+	}
+
+	/**
+	 * Write the method id table produced at conversion.
+	 * The first line holds the mode and the number of methods, then one method per line.
+	 *
+	 * @param methods method names, the index in the list being the method id
+	 * @param timing  whether entry/exit timing was injected as well
+	 */
+	public static void writeTable(File file, List<String> methods, boolean timing) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write(timing ? MODE_TIME : MODE_COUNT);
+			writer.write(' ');
+			writer.write(Integer.toString(methods.size()));
+			writer.write('\n');
+			for (String method : methods) {
+				writer.write(method);
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Load the method id table of the MIDlet and allocate the counters.
+	 * Must be called before any instrumented class is loaded, since the injected code
+	 * uses the arrays unchecked.
+	 *
+	 * @param table the id table written at conversion
+	 * @param dex   the converted MIDlet, checked for instrumentation when the table is missing
+	 * @throws IOException if the MIDlet is instrumented but its table can't be used,
+	 *                     starting it would fail in the first instrumented method
+	 */
+	public static void load(File table, File dex) throws IOException {
+		counts = null;
+		times = null;
+		names = null;
+		if (!table.exists()) {
+			if (contains(dex, INSTRUMENTED_MARKER)) {
+				throw new IOException("Method counter table " + table.getName()
+						+ " is missing, convert the MIDlet again");
+			}
+			return;
+		}
+		List<String> methods = new ArrayList<>();
+		boolean timing;
+		int size = -1;
+		try (BufferedReader reader = new BufferedReader(new FileReader(table))) {
+			String header = reader.readLine();
+			if (header == null) {
+				throw new IOException("Method counter table " + table.getName() + " is empty");
+			}
+			String[] fields = header.split(" ");
+			timing = MODE_TIME.equals(fields[0]);
+			if (fields.length > 1) {
+				size = Integer.parseInt(fields[1]);
+			}
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					methods.add(line);
+				}
+			} catch (IOException e) {
+				if (size < 0) {
+					throw e;
+				}
+				// the ids are known from the header, the counters work without the names
+				Log.w(TAG, "Method names unreadable after " + methods.size() + " of " + size, e);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Method counter table " + table.getName() + " is damaged", e);
+		}
+		size = Math.max(size, methods.size());
+		names = new String[size];
+		for (int i = 0; i < size; i++) {
+			names[i] = i < methods.size() ? methods.get(i) : "method #" + i;
+		}
+		counts = new long[size];
+		if (timing) {
+			times = new long[size];
+		}
+		Log.d(TAG, "Instrumented methods: " + size + (timing ? " with timing" : ""));
+	}
+
+	/**
+	 * Streams through the file looking for the bytes
+	 */
+	private static boolean contains(File file, byte[] pattern) throws IOException {
+		if (!file.exists()) {
+			return false;
+		}
+		byte[] buffer = new byte[64 * 1024];
+		int kept = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer, kept, buffer.length - kept)) > 0) {
+				int end = kept + read;
+				for (int i = 0; i + pattern.length <= end; i++) {
+					int j = 0;
+					while (j < pattern.length && buffer[i + j] == pattern[j]) {
+						j++;
+					}
+					if (j == pattern.length) {
+						return true;
+					}
+				}
+				// keep the tail, the pattern may continue in the next chunk
+				kept = Math.min(pattern.length - 1, end);
+				System.arraycopy(buffer, end - kept, buffer, 0, kept);
+			}
+		}
+		return false;
+	}
+
+	public static boolean isEnabled() {
+		return counts != null;
+	}
+
+	public static void reset() {
+		if (counts != null) {
+			Arrays.fill(counts, 0);
+		}
+		if (times != null) {
+			Arrays.fill(times, 0);
+		}
+	}
+
+	/**
+	 * @return the most invoked methods, hottest first
+	 */
+	public static String getReport(int top) {
+		long[] counts = MethodCounters.counts;
+		long[] times = MethodCounters.times;
+		if (counts == null) {
+			return "Method counters are disabled";
+		}
+		Integer[] ids = new Integer[counts.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i;
+		}
+		// rank by time if it is known, the count alone overrates trivial getters
+		long[] rank = times != null ? times : counts;
+		Arrays.sort(ids, (a, b) -> Long.compare(rank[b], rank[a]));
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < Math.min(top, ids.length); i++) {
+			int id = ids[i];
+			if (counts[id] == 0) {
+				break;
+			}
+			if (times != null) {
+				sb.append(String.format(Locale.US, "%,d calls, %.1f ms", counts[id], times[id] / 1000000.0));
+			} else {
+				sb.append(String.format(Locale.US, "%,d calls", counts[id]));
+			}
+			sb.append("  ").append(names[id]).append('\n');
+		}
+		if (sb.length() == 0) {
+			return "No methods invoked yet";
+		}
+		return sb.toString();
+	}
+}
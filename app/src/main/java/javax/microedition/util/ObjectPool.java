@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free pool of reusable objects.
+ * <p>
+ * Objects live in a fixed array of slots. An object is taken with getAndSet(null) and
+ * returned with compareAndSet(null, object), so a slot changes owner atomically and an
+ * object can never be handed out twice. Objects recycled into a full pool are simply
+ * dropped and left to the garbage collector.
+ * <p>
+ * The statistics counters are updated without synchronization and are approximate.
+ */
+public class ObjectPool<E> {
+	private final AtomicReferenceArray<E> slots;
+	private final int mask;
+
+	// where the last object was put or found, the next search starts here
+	private volatile int hint;
+
+	private int hits;
+	private int misses;
+	private int drops;
+
+	/**
+	 * @param capacity the maximum number of pooled objects, rounded up to a power of two
+	 */
+	public ObjectPool(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		slots = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Take an object from the pool.
+	 *
+	 * @return a pooled object, or null if the pool is empty
+	 */
+	public E pop() {
+		int start = hint;
+		for (int i = 0; i <= mask; i++) {
+			int index = (start - i) & mask;
+			if (slots.get(index) != null) {
+				E value = slots.getAndSet(index, null);
+				if (value != null) {
+					hint = index;
+					hits++;
+					return value;
+				}
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Return an object to the pool.
+	 * The caller must not use the object afterwards.
+	 *
+	 * @param value the object to recycle
+	 */
+	public void push(E value) {
+		int start = hint;
+		for (int i = 0; i <= mask; i++) {
+			int index = (start + i) & mask;
+			if (slots.get(index) == null && slots.compareAndSet(index, null, value)) {
+				hint = index;
+				return;
+			}
+		}
+		drops++;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	public int getDrops() {
+		return drops;
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectPool[hits=" + hits + ", misses=" + misses + ", drops=" + drops + "]";
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.Locale;
+
+/**
+ * High-resolution replacement of {@link Thread#sleep(long)} and {@link Object#wait(long)}
+ * for MIDlet game loops.
+ * <p>
+ * Converted MIDlets call these methods instead of the original ones. Unless pacing is enabled
+ * they simply delegate to the original methods. With pacing enabled:
+ * <ul>
+ * <li>sleeps are shortened by the average overshoot of the calling thread,
+ * so that the thread wakes up close to the requested time;</li>
+ * <li>sleeps of at least half a frame end on the first display refresh after the requested
+ * time, so that the frames of a sleep-paced loop are evenly spaced on screen;</li>
+ * <li>the overshoot of every call is recorded.</li>
+ * </ul>
+ */
+public final class Pacer {
+	/**
+	 * Weight of the last measurement in the average overshoot, as a power of two
+	 */
+	private static final int OVERSHOOT_SHIFT = 3;
+
+	private static volatile boolean enabled;
+
+	private static volatile long vsyncTime;
+	private static volatile long vsyncInterval;
+	private static Choreographer.FrameCallback frameCallback;
+
+	private static final LatencyHistogram overshoot = new LatencyHistogram("Sleep overshoot");
+	private static final LatencyHistogram undershoot = new LatencyHistogram("Sleep undershoot");
+
+	private static final ThreadLocal<long[]> averageOvershoot = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	private Pacer() {
+	}
+
+	public static void setEnabled(boolean value) {
+		if (value == enabled) {
+			return;
+		}
+		enabled = value;
+		new Handler(Looper.getMainLooper()).post(value ? Pacer::startVsync : Pacer::stopVsync);
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Replaces {@link Thread#sleep(long)} in MIDlet code.
+	 */
+	public static void sleep(long millis) throws InterruptedException {
+		if (!enabled || millis <= 0) {
+			Thread.sleep(millis);
+			return;
+		}
+		long start = System.nanoTime();
+		long target = snapToVsync(start, millis * 1000000);
+		sleepUntil(start, target);
+	}
+
+	/**
+	 * Replaces {@link Object#wait(long)} in MIDlet code.
+	 * <p>
+	 * Only the overshoot compensation applies here: the wait may be ended by a notification
+	 * at any time, so snapping it to the display refresh makes no sense.
+	 */
+	public static void waitOn(Object lock, long millis) throws InterruptedException {
+		if (!enabled || millis <= 0) {
+			lock.wait(millis);
+			return;
+		}
+		long start = System.nanoTime();
+		long target = start + millis * 1000000;
+		long[] average = averageOvershoot.get();
+		long duration = Math.max(target - start - average[0], 0);
+		if (duration == 0) {
+			// nothing to wait for, but keep the wait() contract of releasing the monitor
+			duration = 1;
+		}
+		lock.wait(duration / 1000000, (int) (duration % 1000000));
+		long end = System.nanoTime();
+		if (end - start >= duration) {
+			// timed out rather than notified
+			update(average, end - start - duration, end - target);
+		}
+	}
+
+	/**
+	 * Sleep for the given time with overshoot compensation, regardless of whether pacing is enabled.
+	 */
+	public static void sleepNanos(long nanos) throws InterruptedException {
+		long start = System.nanoTime();
+		sleepUntil(start, start + nanos);
+	}
+
+	private static void sleepUntil(long start, long target) throws InterruptedException {
+		long[] average = averageOvershoot.get();
+		long duration = Math.max(target - start - average[0], 0);
+		if (duration > 0) {
+			Thread.sleep(duration / 1000000, (int) (duration % 1000000));
+		} else {
+			Thread.yield();
+		}
+		long end = System.nanoTime();
+		update(average, end - start - duration, end - target);
+	}
+
+	/**
+	 * @param average the average overshoot of the thread
+	 * @param late    how much longer the last sleep took than asked
+	 * @param error   the difference between the wake up time and the target time
+	 */
+	private static void update(long[] average, long late, long error) {
+		average[0] += (late - average[0]) >> OVERSHOOT_SHIFT;
+		if (error >= 0) {
+			overshoot.record(error);
+		} else {
+			undershoot.record(-error);
+		}
+	}
+
+	private static long snapToVsync(long now, long duration) {
+		long interval = vsyncInterval;
+		long target = now + duration;
+		if (interval == 0 || duration < interval / 2) {
+			return target;
+		}
+		long phase = vsyncTime;
+		if (target <= phase) {
+			return target;
+		}
+		// round up: a MIDlet may rely on the sleep lasting at least as long as asked
+		long frames = (target - phase + interval - 1) / interval;
+		return phase + frames * interval;
+	}
+
+	private static void startVsync() {
+		if (frameCallback != null || !enabled) {
+			return;
+		}
+		Choreographer choreographer = Choreographer.getInstance();
+		frameCallback = new Choreographer.FrameCallback() {
+			@Override
+			public void doFrame(long frameTimeNanos) {
+				if (frameCallback != this) {
+					return;
+				}
+				long last = vsyncTime;
+				long interval = frameTimeNanos - last;
+				if (last != 0 && interval > 0 && interval < 100000000) {
+					// frames may be skipped, keep the shortest recent interval
+					long current = vsyncInterval;
+					vsyncInterval = current == 0 || interval < current ? interval
+							: current + ((interval - current) >> 6);
+				}
+				vsyncTime = frameTimeNanos;
+				choreographer.postFrameCallback(this);
+			}
+		};
+		choreographer.postFrameCallback(frameCallback);
+	}
+
+	private static void stopVsync() {
+		if (frameCallback != null) {
+			Choreographer.getInstance().removeFrameCallback(frameCallback);
+			frameCallback = null;
+		}
+		vsyncTime = 0;
+		vsyncInterval = 0;
+	}
+
+	public static String getStatistics() {
+		return String.format(Locale.US, "Pacer: vsync interval=%.2fms; %s; %s",
+				vsyncInterval / 1000000f, overshoot, undershoot);
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sampling profiler of the MIDlet threads.
+ * <p>
+ * At a fixed rate the stacks of all threads that run MIDlet code or belong to the emulator
+ * (named "MIDlet...") are sampled. Every sample is counted as CPU time if the thread was runnable,
+ * otherwise as wait time on the emulator lock or wait site found on its stack.
+ * <p>
+ * The result is written to the "profiles" directory of the app external files:
+ * {@code profile.collapsed} in the collapsed stack format of flame graph tools,
+ * the wait site being the leaf frame of a waiting stack, and {@code profile.txt}
+ * with a per-thread summary and the hottest top frames. Both are rewritten periodically,
+ * since the process may be killed at any time.
+ */
+public final class ThreadProfiler implements Runnable {
+	private static final String TAG = ThreadProfiler.class.getName();
+
+	private static final int MAX_DEPTH = 64;
+	private static final long WRITE_INTERVAL_MILLIS = 10000;
+	private static final int TOP_FRAMES = 30;
+
+	/**
+	 * Classes of these packages are not MIDlet code
+	 */
+	private static final String[] SYSTEM_PACKAGES = {
+			"java.", "javax.", "dalvik.", "libcore.", "sun.", "android.", "androidx.",
+			"com.android.", "org.apache.", "org.microemu.", "io.reactivex.", "com.deadlinegamedev.",
+	};
+
+	private static ThreadProfiler instance;
+
+	private final long intervalNanos;
+	private volatile boolean running = true;
+
+	private final Map<String, int[]> stacks = new HashMap<>();
+	private final Map<String, int[]> topFrames = new HashMap<>();
+	private final Map<String, int[]> threadStates = new HashMap<>();
+	private int samples;
+
+	private final StringBuilder sb = new StringBuilder();
+
+	private ThreadProfiler(int rate) {
+		intervalNanos = 1000000000L / rate;
+	}
+
+	/**
+	 * Start or stop profiling.
+	 *
+	 * @param rate samples per second
+	 */
+	public static synchronized void setEnabled(boolean enabled, int rate) {
+		if (instance != null) {
+			instance.running = false;
+			instance = null;
+		}
+		if (enabled && rate > 0) {
+			instance = new ThreadProfiler(Math.min(rate, 1000));
+			Thread thread = new Thread(instance, "MIDletProfiler");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MAX_PRIORITY);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Write the profile now.
+	 */
+	public static synchronized void dump() {
+		if (instance != null) {
+			instance.write();
+		}
+	}
+
+	@Override
+	public void run() {
+		long lastWrite = System.currentTimeMillis();
+		long next = System.nanoTime();
+		while (running) {
+			sample();
+			if (System.currentTimeMillis() - lastWrite > WRITE_INTERVAL_MILLIS) {
+				write();
+				lastWrite = System.currentTimeMillis();
+			}
+			next += intervalNanos;
+			long delay = next - System.nanoTime();
+			if (delay < 0) {
+				// the sampling itself takes too long, drop the missed samples
+				next = System.nanoTime();
+				continue;
+			}
+			try {
+				Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void sample() {
+		Thread self = Thread.currentThread();
+		Map<Thread, StackTraceElement[]> traces = Thread.getAllStackTraces();
+		synchronized (this) {
+			samples++;
+			for (Map.Entry<Thread, StackTraceElement[]> entry : traces.entrySet()) {
+				Thread thread = entry.getKey();
+				StackTraceElement[] trace = entry.getValue();
+				if (thread == self || trace.length == 0 || !isProfiled(thread, trace)) {
+					continue;
+				}
+				Thread.State state = thread.getState();
+				String waitSite = state == Thread.State.RUNNABLE ? null : getWaitSite(state, trace);
+
+				String name = thread.getName();
+				int[] counters = threadStates.get(name);
+				if (counters == null) {
+					counters = new int[3];
+					threadStates.put(name, counters);
+				}
+				counters[state == Thread.State.RUNNABLE ? 0 : state == Thread.State.BLOCKED ? 1 : 2]++;
+
+				sb.setLength(0);
+				sb.append(name.replace(';', '_'));
+				for (int i = Math.min(trace.length, MAX_DEPTH) - 1; i >= 0; i--) {
+					sb.append(';');
+					appendFrame(sb, trace[i]);
+				}
+				if (waitSite != null) {
+					sb.append(";[").append(waitSite).append(']');
+				}
+				increment(stacks, sb.toString());
+
+				if (waitSite == null) {
+					sb.setLength(0);
+					appendFrame(sb, trace[0]);
+					increment(topFrames, sb.toString());
+				}
+			}
+		}
+	}
+
+	private static boolean isProfiled(Thread thread, StackTraceElement[] trace) {
+		String name = thread.getName();
+		if (name.startsWith("MIDlet")) {
+			return !name.equals("MIDletTimerWheel");
+		}
+		for (StackTraceElement element : trace) {
+			if (isMidletClass(element.getClassName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isMidletClass(String className) {
+		for (String prefix : SYSTEM_PACKAGES) {
+			if (className.startsWith(prefix)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Name the emulator lock or wait site a non-runnable thread is stuck on.
+	 */
+	private static String getWaitSite(Thread.State state, StackTraceElement[] trace) {
+		for (StackTraceElement element : trace) {
+			String className = element.getClassName();
+			String method = element.getMethodName();
+			if (className.equals("javax.microedition.util.Pacer")
+					|| className.equals("java.lang.Thread") && method.equals("sleep")) {
+				return "sleep";
+			} else if (className.startsWith("javax.microedition.lcdui.Canvas")) {
+				return state == Thread.State.BLOCKED ? "Canvas.paintsync" : "Canvas." + method;
+			} else if (className.equals("javax.microedition.lcdui.event.EventQueue")) {
+				return method.equals("run") ? "EventQueue idle" : "EventQueue." + method;
+			} else if (className.equals("java.util.concurrent.ThreadPoolExecutor")) {
+				return "pool idle";
+			} else if (className.startsWith("javax.microedition.rms.")) {
+				return "RecordStore";
+			} else if (isMidletClass(className)) {
+				break;
+			}
+		}
+		return state == Thread.State.BLOCKED ? "monitor" : "wait";
+	}
+
+	private static void appendFrame(StringBuilder sb, StackTraceElement element) {
+		sb.append(element.getClassName()).append('.').append(element.getMethodName());
+	}
+
+	private static void increment(Map<String, int[]> map, String key) {
+		int[] count = map.get(key);
+		if (count == null) {
+			map.put(key, new int[]{1});
+		} else {
+			count[0]++;
+		}
+	}
+
+	private synchronized void write() {
+		if (samples == 0) {
+			return;
+		}
+		File dir = ContextHolder.getContext().getExternalFilesDir("profiles");
+		if (dir == null) {
+			return;
+		}
+		try (Writer writer = new FileWriter(new File(dir, "profile.collapsed"))) {
+			for (Map.Entry<String, int[]> entry : stacks.entrySet()) {
+				writer.write(entry.getKey());
+				writer.write(' ');
+				writer.write(Integer.toString(entry.getValue()[0]));
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "write: " + e);
+		}
+		try (Writer writer = new FileWriter(new File(dir, "profile.txt"))) {
+			writer.write(getSummary());
+		} catch (IOException e) {
+			Log.w(TAG, "write: " + e);
+		}
+	}
+
+	private String getSummary() {
+		float millis = intervalNanos / 1000000f;
+		StringBuilder out = new StringBuilder();
+		out.append(String.format(Locale.US, "%d samples every %.2f ms\n\n", samples, millis));
+		out.append("thread\tcpu ms\tblocked ms\twaiting ms\n");
+		for (Map.Entry<String, int[]> entry : threadStates.entrySet()) {
+			int[] counters = entry.getValue();
+			out.append(String.format(Locale.US, "%s\t%.0f\t%.0f\t%.0f\n", entry.getKey(),
+					counters[0] * millis, counters[1] * millis, counters[2] * millis));
+		}
+
+		Map<String, int[]> waits = new HashMap<>();
+		for (Map.Entry<String, int[]> entry : stacks.entrySet()) {
+			String stack = entry.getKey();
+			if (stack.endsWith("]")) {
+				String site = stack.substring(stack.lastIndexOf(";[") + 2, stack.length() - 1);
+				int[] count = waits.get(site);
+				if (count == null) {
+					waits.put(site, new int[]{entry.getValue()[0]});
+				} else {
+					count[0] += entry.getValue()[0];
+				}
+			}
+		}
+		out.append("\nwait site\tms\n");
+		for (Map.Entry<String, int[]> entry : sort(waits)) {
+			out.append(String.format(Locale.US, "%s\t%.0f\n", entry.getKey(), entry.getValue()[0] * millis));
+		}
+
+		out.append("\ntop frame\tcpu ms\n");
+		List<Map.Entry<String, int[]>> frames = sort(topFrames);
+		for (int i = 0; i < frames.size() && i < TOP_FRAMES; i++) {
+			Map.Entry<String, int[]> entry = frames.get(i);
+			out.append(String.format(Locale.US, "%s\t%.0f\n", entry.getKey(), entry.getValue()[0] * millis));
+		}
+		return out.toString();
+	}
+
+	private static List<Map.Entry<String, int[]>> sort(Map<String, int[]> map) {
+		List<Map.Entry<String, int[]>> list = new ArrayList<>(map.entrySet());
+		Collections.sort(list, (a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+		return list;
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel shared by all {@link WheelTimer}s.
+ * <p>
+ * Tasks are kept in {@link #WHEEL_SIZE} buckets of one millisecond each, a task that is due
+ * more than one revolution ahead also counts the remaining revolutions. A single thread
+ * sleeps until the nearest due tick and hands due tasks to their timers, which run them
+ * on a pool of at most {@value #MAX_WORKERS} worker threads. Normally one worker is enough
+ * for all timers, the second one only runs while tasks of different timers overlap. When both
+ * are busy, the due timers wait for a free worker.
+ * <p>
+ * Fixed-rate tasks are rescheduled from their previous deadline rather than from
+ * the actual start time, so that execution delays do not add up to a drift.
+ */
+final class TimerWheel implements Runnable {
+	private static final long TICK_NANOS = 1000000;
+	private static final int WHEEL_SIZE = 512;
+	private static final int MASK = WHEEL_SIZE - 1;
+	private static final long NONE = Long.MAX_VALUE;
+	private static final int MAX_WORKERS = 2;
+
+	private static final TimerWheel instance = new TimerWheel();
+
+	private final WheelTimerTask[] buckets = new WheelTimerTask[WHEEL_SIZE];
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * The next tick to be processed
+	 */
+	private long currentTick;
+
+	/**
+	 * The tick the wheel thread sleeps until
+	 */
+	private long wakeTick = NONE;
+
+	private int size;
+	private Thread thread;
+
+	private final AtomicInteger workersCreated = new AtomicInteger();
+	private final ThreadPoolExecutor workers;
+	private final LatencyHistogram lateness = new LatencyHistogram("Timer lateness");
+
+	private TimerWheel() {
+		workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+			Thread worker = new Thread(r, "MIDletTimer-" + workersCreated.incrementAndGet());
+			worker.setDaemon(true);
+			return worker;
+		});
+		// idle workers still go away
+		workers.allowCoreThreadTimeOut(true);
+	}
+
+	static TimerWheel getInstance() {
+		return instance;
+	}
+
+	synchronized void schedule(WheelTimer timer, WheelTimerTask task, long deadline, long period) {
+		if (task.state != WheelTimerTask.VIRGIN) {
+			throw new IllegalStateException("Task already scheduled or cancelled");
+		}
+		task.timer = timer;
+		task.deadline = deadline;
+		task.period = period;
+		task.state = WheelTimerTask.SCHEDULED;
+		insert(task);
+	}
+
+	synchronized boolean cancel(WheelTimerTask task) {
+		boolean result = task.state == WheelTimerTask.SCHEDULED;
+		task.state = WheelTimerTask.CANCELLED;
+		if (task.bucket >= 0) {
+			unlink(task);
+		}
+		return result;
+	}
+
+	/**
+	 * Drop the tasks of a cancelled timer from the wheel.
+	 */
+	synchronized void timerCancelled(WheelTimer timer) {
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			WheelTimerTask task = buckets[i];
+			while (task != null) {
+				WheelTimerTask next = task.next;
+				if (task.timer == timer) {
+					unlink(task);
+				}
+				task = next;
+			}
+		}
+	}
+
+	/**
+	 * Called by a timer right before a due task runs.
+	 *
+	 * @return false if the task has been cancelled in the meantime
+	 */
+	synchronized boolean begin(WheelTimer timer, WheelTimerTask task, long start) {
+		if (task.state != WheelTimerTask.SCHEDULED || timer.cancelled) {
+			return false;
+		}
+		if (task.period == 0) {
+			task.state = WheelTimerTask.EXECUTED;
+		}
+		task.lastExecutionTime = System.currentTimeMillis() - (start - task.deadline) / 1000000;
+		return true;
+	}
+
+	/**
+	 * Called by a timer after a task has run, puts a periodic task back on the wheel.
+	 */
+	synchronized void finish(WheelTimer timer, WheelTimerTask task, long start) {
+		if (task.period == 0 || task.state != WheelTimerTask.SCHEDULED || timer.cancelled) {
+			return;
+		}
+		if (task.period > 0) {
+			task.deadline += task.period;
+		} else {
+			task.deadline = start - task.period;
+		}
+		insert(task);
+	}
+
+	void execute(Runnable runnable) {
+		workers.execute(runnable);
+	}
+
+	void recordLateness(long nanos) {
+		lateness.record(nanos);
+	}
+
+	private void insert(WheelTimerTask task) {
+		long nowTick = (System.nanoTime() - startTime) / TICK_NANOS;
+		if (size == 0 && currentTick < nowTick) {
+			// nothing to expire in between, skip the idle time
+			currentTick = nowTick;
+		}
+		// round up, so that a task never runs early
+		long tick = Math.max((task.deadline - startTime + TICK_NANOS - 1) / TICK_NANOS, currentTick);
+		task.rounds = (tick - currentTick) / WHEEL_SIZE;
+		int index = (int) tick & MASK;
+		task.bucket = index;
+		task.prev = null;
+		task.next = buckets[index];
+		if (task.next != null) {
+			task.next.prev = task;
+		}
+		buckets[index] = task;
+		size++;
+
+		if (thread == null) {
+			thread = new Thread(this, "MIDletTimerWheel");
+			thread.setDaemon(true);
+			thread.start();
+		} else if (tick < wakeTick) {
+			notify();
+		}
+	}
+
+	private void unlink(WheelTimerTask task) {
+		if (task.prev != null) {
+			task.prev.next = task.next;
+		} else {
+			buckets[task.bucket] = task.next;
+		}
+		if (task.next != null) {
+			task.next.prev = task.prev;
+		}
+		task.prev = null;
+		task.next = null;
+		task.bucket = -1;
+		size--;
+	}
+
+	@Override
+	public synchronized void run() {
+		while (true) {
+			long nowTick = (System.nanoTime() - startTime) / TICK_NANOS;
+			while (currentTick <= nowTick) {
+				expire((int) currentTick & MASK);
+				currentTick++;
+			}
+			wakeTick = nextTick();
+			try {
+				if (wakeTick == NONE) {
+					wait();
+				} else {
+					long delay = startTime + wakeTick * TICK_NANOS - System.nanoTime();
+					if (delay > 0) {
+						wait(delay / 1000000, (int) (delay % 1000000));
+					}
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void expire(int index) {
+		WheelTimerTask task = buckets[index];
+		while (task != null) {
+			WheelTimerTask next = task.next;
+			if (task.rounds > 0) {
+				task.rounds--;
+			} else {
+				unlink(task);
+				task.timer.ready(task);
+			}
+			task = next;
+		}
+	}
+
+	/**
+	 * @return the nearest tick that has a due task, or {@link #NONE} if the wheel is empty
+	 */
+	private long nextTick() {
+		if (size == 0) {
+			return NONE;
+		}
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			long tick = currentTick + i;
+			for (WheelTimerTask task = buckets[(int) tick & MASK]; task != null; task = task.next) {
+				if (task.rounds == 0) {
+					return tick;
+				}
+			}
+		}
+		// everything is more than one revolution ahead, come back after this one
+		return currentTick + WHEEL_SIZE;
+	}
+
+	String getStatistics() {
+		synchronized (this) {
+			return String.format(Locale.US, "TimerWheel: %d tasks, workers alive=%d, largest=%d, created=%d; %s",
+					size, workers.getPoolSize(), workers.getLargestPoolSize(), workersCreated.get(), lateness);
+		}
+	}
+}
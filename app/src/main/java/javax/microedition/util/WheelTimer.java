@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drop-in replacement of {@link java.util.Timer}.
+ * <p>
+ * Instead of a thread per timer, all timers share the {@link TimerWheel}. Tasks of one timer
+ * still run one at a time in the order they become due. The worker threads are few, so a task
+ * that never returns blocks its own timer and also takes one worker from all the others.
+ * <p>
+ * The lateness of every execution is recorded. If a fixed-rate task starts later than
+ * its period, the timer is reported once as overloaded.
+ */
+public class WheelTimer {
+	private static final String TAG = WheelTimer.class.getName();
+
+	private static final int WARM_UP_EXECUTIONS = 10;
+
+	private static final AtomicInteger serialNumber = new AtomicInteger();
+
+	private final String name;
+	private final TimerWheel wheel = TimerWheel.getInstance();
+	private final LatencyHistogram lateness;
+
+	private final ArrayDeque<WheelTimerTask> ready = new ArrayDeque<>();
+	private final Runnable drain = this::drain;
+	private boolean running;
+	private boolean overloadReported;
+
+	volatile boolean cancelled;
+
+	public WheelTimer() {
+		this("Timer-" + serialNumber.getAndIncrement());
+	}
+
+	public WheelTimer(boolean isDaemon) {
+		this();
+	}
+
+	public WheelTimer(String name) {
+		if (name == null) {
+			throw new NullPointerException();
+		}
+		this.name = name;
+		this.lateness = new LatencyHistogram(name + " lateness");
+	}
+
+	public WheelTimer(String name, boolean isDaemon) {
+		this(name);
+	}
+
+	public void schedule(WheelTimerTask task, long delay) {
+		if (delay < 0) {
+			throw new IllegalArgumentException("Negative delay.");
+		}
+		sched(task, delay, 0);
+	}
+
+	public void schedule(WheelTimerTask task, Date time) {
+		sched(task, getDelay(time), 0);
+	}
+
+	public void schedule(WheelTimerTask task, long delay, long period) {
+		if (delay < 0) {
+			throw new IllegalArgumentException("Negative delay.");
+		}
+		if (period <= 0) {
+			throw new IllegalArgumentException("Non-positive period.");
+		}
+		sched(task, delay, -period);
+	}
+
+	public void schedule(WheelTimerTask task, Date firstTime, long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Non-positive period.");
+		}
+		sched(task, getDelay(firstTime), -period);
+	}
+
+	public void scheduleAtFixedRate(WheelTimerTask task, long delay, long period) {
+		if (delay < 0) {
+			throw new IllegalArgumentException("Negative delay.");
+		}
+		if (period <= 0) {
+			throw new IllegalArgumentException("Non-positive period.");
+		}
+		sched(task, delay, period);
+	}
+
+	public void scheduleAtFixedRate(WheelTimerTask task, Date firstTime, long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Non-positive period.");
+		}
+		sched(task, getDelay(firstTime), period);
+	}
+
+	/**
+	 * Discard all scheduled tasks. A task being executed is allowed to complete.
+	 */
+	public void cancel() {
+		cancelled = true;
+		synchronized (this) {
+			ready.clear();
+		}
+		wheel.timerCancelled(this);
+	}
+
+	/**
+	 * Cancelled tasks are removed from the wheel immediately, so there is nothing to purge.
+	 */
+	public int purge() {
+		return 0;
+	}
+
+	public LatencyHistogram getLateness() {
+		return lateness;
+	}
+
+	/**
+	 * @return thread and lateness counters of the shared wheel
+	 */
+	public static String getStatistics() {
+		return TimerWheel.getInstance().getStatistics();
+	}
+
+	private static long getDelay(Date time) {
+		long millis = time.getTime();
+		if (millis < 0) {
+			throw new IllegalArgumentException("Illegal execution time.");
+		}
+		return Math.max(0, millis - System.currentTimeMillis());
+	}
+
+	private void sched(WheelTimerTask task, long delay, long period) {
+		if (cancelled) {
+			throw new IllegalStateException("Timer already cancelled.");
+		}
+		wheel.schedule(this, task, System.nanoTime() + delay * 1000000, period * 1000000);
+	}
+
+	/**
+	 * Called by the wheel when a task is due.
+	 */
+	void ready(WheelTimerTask task) {
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			ready.add(task);
+			if (running) {
+				return;
+			}
+			running = true;
+		}
+		wheel.execute(drain);
+	}
+
+	private void drain() {
+		while (true) {
+			WheelTimerTask task;
+			synchronized (this) {
+				task = ready.poll();
+				if (task == null || cancelled) {
+					running = false;
+					return;
+				}
+			}
+			execute(task);
+		}
+	}
+
+	private void execute(WheelTimerTask task) {
+		long start = System.nanoTime();
+		long late = start - task.deadline;
+		if (!wheel.begin(this, task, start)) {
+			return;
+		}
+		lateness.record(late);
+		wheel.recordLateness(late);
+		// the first executions are often late because a worker thread has to be started
+		if (task.period > 0 && late > task.period && !overloadReported
+				&& lateness.getCount() > WARM_UP_EXECUTIONS) {
+			overloadReported = true;
+			Log.w(TAG, "Timer " + name + " is overloaded: " + lateness);
+		}
+		try {
+			task.run();
+		} catch (Throwable t) {
+			// java.util.Timer dies on an uncaught exception, and so does this one
+			t.printStackTrace();
+			cancel();
+			return;
+		}
+		wheel.finish(this, task, start);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
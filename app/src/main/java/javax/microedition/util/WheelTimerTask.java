@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.util;
+
+/**
+ * Drop-in replacement of {@link java.util.TimerTask} for {@link WheelTimer}.
+ * <p>
+ * MIDlet classes are patched to extend this class instead of {@code java.util.TimerTask}
+ * when they are converted.
+ */
+public abstract class WheelTimerTask implements Runnable {
+	static final int VIRGIN = 0;
+	static final int SCHEDULED = 1;
+	static final int EXECUTED = 2;
+	static final int CANCELLED = 3;
+
+	// all fields are guarded by the TimerWheel instance
+	int state = VIRGIN;
+	WheelTimer timer;
+
+	/**
+	 * Next execution time in the System.nanoTime() time base
+	 */
+	long deadline;
+
+	/**
+	 * Period in nanoseconds: positive for fixed-rate execution,
+	 * negative for fixed-delay execution and 0 for a one-shot task
+	 */
+	long period;
+
+	/**
+	 * Scheduled time of the most recent execution in milliseconds, for scheduledExecutionTime()
+	 */
+	long lastExecutionTime;
+
+	// links of the wheel bucket
+	WheelTimerTask prev;
+	WheelTimerTask next;
+	int bucket = -1;
+	long rounds;
+
+	protected WheelTimerTask() {
+	}
+
+	@Override
+	public abstract void run();
+
+	/**
+	 * Cancel this task.
+	 *
+	 * @return true if this prevented one or more scheduled executions
+	 */
+	public boolean cancel() {
+		return TimerWheel.getInstance().cancel(this);
+	}
+
+	public long scheduledExecutionTime() {
+		synchronized (TimerWheel.getInstance()) {
+			return lastExecutionTime;
+		}
+	}
+}
@@ -32,10 +32,18 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 public class AndroidClassVisitor extends ClassVisitor {
 
 	private String encoding;
 
+	private String className;
+
+	private List<String> methods;
+
+	private boolean timing;
+
 	public class AndroidMethodVisitor extends PatternMethodAdapter {
 
 		private final static int SEEN_NOTHING = 0;
@@ -85,6 +93,11 @@ public class AndroidClassVisitor extends ClassVisitor {
 							"(Ljava/lang/Class;Ljava/lang/String;)Ljava/io/InputStream;", itf);
 					return;
 				}
+			} else if (owner.equals("java/lang/Thread")) {
+				if (name.equals("sleep") && desc.equals("(J)V")) {
+					mv.visitMethodInsn(Opcodes.INVOKESTATIC, "javax/microedition/util/Pacer", name, desc, false);
+					return;
+				}
 			} else if (owner.equals("java/lang/String")) {
 				if (name.equals("<init>") && desc.startsWith("([B") && !desc.endsWith("Ljava/lang/String;)V")) {
 					mv.visitLdcInsn(encoding);
@@ -98,6 +111,12 @@ public class AndroidClassVisitor extends ClassVisitor {
 					return;
 				}
 			}
+			if (opcode == Opcodes.INVOKEVIRTUAL && name.equals("wait") && desc.equals("(J)V")) {
+				// Object.wait(long) is final, so this is it whatever the owner is
+				mv.visitMethodInsn(Opcodes.INVOKESTATIC, "javax/microedition/util/Pacer", "waitOn",
+						"(Ljava/lang/Object;J)V", false);
+				return;
+			}
 			mv.visitMethodInsn(opcode, owner, name, desc, itf);
 		}
 
@@ -112,13 +131,34 @@ public class AndroidClassVisitor extends ClassVisitor {
 	}
 
 	public AndroidClassVisitor(ClassVisitor cv, String encoding) {
+		this(cv, encoding, null, false);
+	}
+
+	/**
+	 * @param methods if not null, method counters are injected and the names of the
+	 *                instrumented methods are appended to this list in id order
+	 * @param timing  inject entry/exit timing as well
+	 */
+	public AndroidClassVisitor(ClassVisitor cv, String encoding, List<String> methods, boolean timing) {
 		super(Opcodes.ASM7, cv);
 		this.encoding = encoding;
+		this.methods = methods;
+		this.timing = timing;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		className = name;
+		super.visit(version, access, name, signature, superName, interfaces);
 	}
 
 	@Override
 	public MethodVisitor visitMethod(int access, final String name, String desc, final String signature, final String[] exceptions) {
-		return new AndroidMethodVisitor(super.visitMethod(access, name, desc, signature, exceptions));
+		MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+		if (methods != null) {
+			mv = new MethodCounterAdapter(mv, access, className, name, desc, methods, timing);
+		}
+		return new AndroidMethodVisitor(mv);
 	}
 
 }
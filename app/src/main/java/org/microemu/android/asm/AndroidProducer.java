@@ -30,12 +30,17 @@ package org.microemu.android.asm;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -45,20 +50,44 @@ public class AndroidProducer {
 
 	private static final int BUFFER_SIZE = 2048;
 
-	private static byte[] instrument(final byte[] classFile, String classFileName, String encoding)
+	/**
+	 * MIDlet timers share the threads of a timing wheel instead of starting one thread each
+	 */
+	private static final Remapper TIMER_REMAPPER;
+
+	static {
+		Map<String, String> mapping = new HashMap<>();
+		mapping.put("java/util/Timer", "javax/microedition/util/WheelTimer");
+		mapping.put("java/util/TimerTask", "javax/microedition/util/WheelTimerTask");
+		TIMER_REMAPPER = new SimpleRemapper(mapping);
+	}
+
+	private static byte[] instrument(final byte[] classFile, String classFileName, String encoding,
+									 List<String> methods, boolean timing)
 			throws IllegalArgumentException {
 		ClassReader cr = new ClassReader(classFile);
 		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-		ClassVisitor cv = new AndroidClassVisitor(cw, encoding);
+		ClassVisitor cv = new ClassRemapper(new AndroidClassVisitor(cw, encoding, methods, timing), TIMER_REMAPPER);
 		if (!cr.getClassName().equals(classFileName)) {
 			throw new IllegalArgumentException("Class name does not match path");
 		}
-		cr.accept(cv, ClassReader.SKIP_DEBUG);
+		// the counter adapter renumbers the locals, which requires expanded frames
+		cr.accept(cv, ClassReader.SKIP_DEBUG | (methods != null ? ClassReader.EXPAND_FRAMES : 0));
 
 		return cw.toByteArray();
 	}
 
 	public static void processJar(File jarInputFile, File jarOutputFile, String encoding) throws IOException {
+		processJar(jarInputFile, jarOutputFile, encoding, null, false);
+	}
+
+	/**
+	 * @param methods if not null, per-method counters are injected into the MIDlet
+	 *                and this list receives the method id table
+	 * @param timing  inject entry/exit timing together with the counters
+	 */
+	public static void processJar(File jarInputFile, File jarOutputFile, String encoding,
+								  List<String> methods, boolean timing) throws IOException {
 		HashMap<String, byte[]> resources = new HashMap<>();
 		ZipEntry zipEntry;
 		InputStream zis;
@@ -94,7 +123,7 @@ public class AndroidProducer {
 				try {
 					if (name.endsWith(".class")) {
 						outBuffer = instrument(inBuffer,
-								name.replace(".class", ""), encoding);
+								name.replace(".class", ""), encoding, methods, timing);
 					}
 					zos.putNextEntry(new ZipEntry(name));
 					zos.write(outBuffer);
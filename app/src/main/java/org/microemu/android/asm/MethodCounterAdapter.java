@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Nikita Shakarun
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.microemu.android.asm;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.util.List;
+
+/**
+ * Injects the per-method counters of javax.microedition.util.MethodCounters.
+ * The method gets its id when its code is visited, abstract and native methods get none.
+ */
+class MethodCounterAdapter extends AdviceAdapter {
+	private static final Type COUNTERS = Type.getObjectType("javax/microedition/util/MethodCounters");
+	private static final Type LONG_ARRAY = Type.getType("[J");
+	private static final Type SYSTEM = Type.getType(System.class);
+	private static final Method NANO_TIME = Method.getMethod("long nanoTime()");
+
+	private final String methodName;
+	private final List<String> methods;
+	private final boolean timing;
+
+	private int id;
+	private int start;
+
+	MethodCounterAdapter(MethodVisitor mv, int access, String className, String name, String desc,
+						 List<String> methods, boolean timing) {
+		super(Opcodes.ASM7, mv, access, name, desc);
+		this.methodName = className.replace('/', '.') + '.' + name + desc;
+		this.methods = methods;
+		this.timing = timing;
+	}
+
+	@Override
+	protected void onMethodEnter() {
+		id = methods.size();
+		methods.add(methodName);
+
+		// counts[id]++
+		getStatic(COUNTERS, "counts", LONG_ARRAY);
+		push(id);
+		dup2();
+		arrayLoad(Type.LONG_TYPE);
+		push(1L);
+		math(ADD, Type.LONG_TYPE);
+		arrayStore(Type.LONG_TYPE);
+
+		if (timing) {
+			start = newLocal(Type.LONG_TYPE);
+			invokeStatic(SYSTEM, NANO_TIME);
+			storeLocal(start);
+		}
+	}
+
+	@Override
+	protected void onMethodExit(int opcode) {
+		if (!timing) {
+			return;
+		}
+		// times[id] += System.nanoTime() - start
+		getStatic(COUNTERS, "times", LONG_ARRAY);
+		push(id);
+		dup2();
+		arrayLoad(Type.LONG_TYPE);
+		invokeStatic(SYSTEM, NANO_TIME);
+		loadLocal(start);
+		math(SUB, Type.LONG_TYPE);
+		math(ADD, Type.LONG_TYPE);
+		arrayStore(Type.LONG_TYPE);
+	}
+}